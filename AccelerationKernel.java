@@ -0,0 +1,164 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * AccelerationKernel class, turns blocks of 3-axis samples into the scalar
+ * signal selected by an {@link AxisMode}. The mode is switched on once per
+ * block; the Z_AXIS and MAGNITUDE loops are straight, branch-free passes over
+ * the arrays the JIT can unroll and vectorise. The VERTICAL mode updates its
+ * low-pass gravity estimate sample by sample and branches on the first
+ * sample and a zero estimate, the state is kept in the kernel instance.
+ *
+ * Not thread-safe, one instance per detector.
+ *
+ */
+public class AccelerationKernel {
+
+	public static final double GRAVITY_TIME_CONSTANT = 1.0; // in seconds
+
+	private static final double SECOND_IN_NANOSECONDS = 1e9;
+
+	private final AxisMode mMode;
+	private final double mTimeConstant;
+
+	// low-pass gravity estimate for the VERTICAL mode
+	private float mGravityX, mGravityY, mGravityZ;
+	private long mLastTimestamp = Long.MIN_VALUE;
+	private float mMarkX, mMarkY, mMarkZ;
+	private long mMarkTimestamp = Long.MIN_VALUE;
+
+	public AccelerationKernel(AxisMode mode) {
+		this(mode, GRAVITY_TIME_CONSTANT);
+	}
+
+	/**
+	 * @param timeConstant
+	 *            of the gravity low-pass filter in seconds
+	 */
+	public AccelerationKernel(AxisMode mode, double timeConstant) {
+		mMode = mode;
+		mTimeConstant = timeConstant;
+	}
+
+	public AxisMode getMode() {
+		return mMode;
+	}
+
+	/**
+	 * Signal value of one sample.
+	 */
+	public float project(long timestamp, float x, float y, float z) {
+		switch (mMode) {
+		case MAGNITUDE:
+			return (float) Math.sqrt(x * x + y * y + z * z);
+		case VERTICAL:
+			return vertical(timestamp, x, y, z);
+		default:
+			return z;
+		}
+	}
+
+	/**
+	 * Signal values of a block of interleaved x, y, z samples.
+	 *
+	 * @param offset
+	 *            first sample, counted in samples
+	 * @param out
+	 *            receives length values starting at index 0
+	 */
+	public void project(long[] timestamps, float[] xyz, int offset, int length, float[] out) {
+		switch (mMode) {
+		case MAGNITUDE:
+			magnitude(xyz, offset, length, out);
+			break;
+		case VERTICAL:
+			for (int i = 0; i < length; i++) {
+				int j = 3 * (offset + i);
+				out[i] = vertical(timestamps[offset + i], xyz[j], xyz[j + 1], xyz[j + 2]);
+			}
+			break;
+		default:
+			for (int i = 0; i < length; i++) {
+				out[i] = xyz[3 * (offset + i) + 2];
+			}
+		}
+	}
+
+	public static void magnitude(float[] xyz, int offset, int length, float[] out) {
+		for (int i = 0; i < length; i++) {
+			int j = 3 * (offset + i);
+			float x = xyz[j];
+			float y = xyz[j + 1];
+			float z = xyz[j + 2];
+			out[i] = (float) Math.sqrt(x * x + y * y + z * z);
+		}
+	}
+
+	/**
+	 * Updates the gravity estimate and projects the sample onto its direction.
+	 */
+	private float vertical(long timestamp, float x, float y, float z) {
+		if (mLastTimestamp == Long.MIN_VALUE) {
+			mGravityX = x;
+			mGravityY = y;
+			mGravityZ = z;
+		} else {
+			double dt = (timestamp - mLastTimestamp) / SECOND_IN_NANOSECONDS;
+			float alpha = (float) (dt / (mTimeConstant + dt));
+			mGravityX += alpha * (x - mGravityX);
+			mGravityY += alpha * (y - mGravityY);
+			mGravityZ += alpha * (z - mGravityZ);
+		}
+		mLastTimestamp = timestamp;
+		float norm = (float) Math.sqrt(mGravityX * mGravityX + mGravityY * mGravityY + mGravityZ * mGravityZ);
+		if (norm == 0) {
+			return z;
+		}
+		return (x * mGravityX + y * mGravityY + z * mGravityZ) / norm;
+	}
+
+	/**
+	 * Remembers the filter state, {@link #rewind()} returns to it. Lets a bulk
+	 * caller project a block ahead and still stop in the middle of it.
+	 */
+	public void mark() {
+		mMarkX = mGravityX;
+		mMarkY = mGravityY;
+		mMarkZ = mGravityZ;
+		mMarkTimestamp = mLastTimestamp;
+	}
+
+	public void rewind() {
+		mGravityX = mMarkX;
+		mGravityY = mMarkY;
+		mGravityZ = mMarkZ;
+		mLastTimestamp = mMarkTimestamp;
+	}
+
+	/**
+	 * Writes the gravity estimate, the mode is the owner's configuration.
+	 */
+	public void writeState(DataOutput out) throws IOException {
+		out.writeFloat(mGravityX);
+		out.writeFloat(mGravityY);
+		out.writeFloat(mGravityZ);
+		out.writeLong(mLastTimestamp);
+	}
+
+	public void readState(DataInput in) throws IOException {
+		mGravityX = in.readFloat();
+		mGravityY = in.readFloat();
+		mGravityZ = in.readFloat();
+		mLastTimestamp = in.readLong();
+	}
+
+	public void reset() {
+		mGravityX = 0;
+		mGravityY = 0;
+		mGravityZ = 0;
+		mLastTimestamp = Long.MIN_VALUE;
+	}
+}
@@ -0,0 +1,60 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * AccelerometerTrace class, recorded accelerometer samples held in parallel
+ * primitive arrays. The arrays are shared, not copied.
+ *
+ */
+public class AccelerometerTrace {
+
+	private final long[] timestamps;
+	private final float[] x, y, z;
+	private final int length;
+
+	/**
+	 * @param timestamps
+	 *            sensor timestamps in nanoseconds, ascending
+	 * @param length
+	 *            number of samples, the arrays may be longer
+	 */
+	public AccelerometerTrace(long[] timestamps, float[] x, float[] y, float[] z, int length) {
+		if (timestamps.length < length || x.length < length || y.length < length || z.length < length) {
+			throw new IllegalArgumentException("arrays shorter than the trace length");
+		}
+		this.timestamps = timestamps;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.length = length;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	public float[] getX() {
+		return x;
+	}
+
+	public float[] getY() {
+		return y;
+	}
+
+	public float[] getZ() {
+		return z;
+	}
+
+	/**
+	 * @return trace duration in seconds
+	 */
+	public double getDuration() {
+		if (length < 2) {
+			return 0;
+		}
+		return (timestamps[length - 1] - timestamps[0]) / 1e9;
+	}
+}
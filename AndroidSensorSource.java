@@ -0,0 +1,100 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+/**
+ * AndroidSensorSource class, batches accelerometer events. The max report
+ * latency is passed to the sensor framework, so the hardware FIFO can hold the
+ * samples while the application processor sleeps; the samples are collected
+ * here and handed to the listener when the batch is full or spans the max
+ * report latency.
+ *
+ */
+public class AndroidSensorSource implements ISensorSource, SensorEventListener {
+
+	private static final long MICROSECOND_IN_NANOSECONDS = 1000;
+
+	private final SensorManager mSensorManager;
+	private final Sensor mSensor;
+	private final int mSamplingPeriodUs;
+	private final int mMaxReportLatencyUs;
+	private final long mMaxReportLatencyNanos;
+
+	private final long[] mTimestamps;
+	private final float[] mXyz;
+	private int mCount;
+	private ISampleBatchListener mListener;
+
+	/**
+	 * @param samplingPeriodUs
+	 *            sampling period in microseconds or one of the
+	 *            SensorManager.SENSOR_DELAY_ constants
+	 * @param maxReportLatencyUs
+	 *            how long the samples may wait before delivery, 0 delivers
+	 *            every sample on its own
+	 * @param batchSize
+	 *            largest batch handed to the listener
+	 */
+	public AndroidSensorSource(SensorManager sensorManager, Sensor sensor, int samplingPeriodUs,
+			int maxReportLatencyUs, int batchSize) {
+		mSensorManager = sensorManager;
+		mSensor = sensor;
+		mSamplingPeriodUs = samplingPeriodUs;
+		mMaxReportLatencyUs = maxReportLatencyUs;
+		mMaxReportLatencyNanos = maxReportLatencyUs * MICROSECOND_IN_NANOSECONDS;
+		mTimestamps = new long[batchSize];
+		mXyz = new float[3 * batchSize];
+	}
+
+	public static AndroidSensorSource accelerometer(SensorManager sensorManager, int samplingPeriodUs,
+			int maxReportLatencyUs, int batchSize) {
+		Sensor sensor = SensorHelper.getSensor(sensorManager, Sensor.TYPE_ACCELEROMETER, "accelerometer");
+		return new AndroidSensorSource(sensorManager, sensor, samplingPeriodUs, maxReportLatencyUs, batchSize);
+	}
+
+	@Override
+	public synchronized void start(ISampleBatchListener listener) {
+		mListener = listener;
+		mCount = 0;
+		mSensorManager.registerListener(this, mSensor, mSamplingPeriodUs, mMaxReportLatencyUs);
+	}
+
+	@Override
+	public void stop() {
+		mSensorManager.unregisterListener(this);
+		synchronized (this) {
+			deliver();
+			mListener = null;
+		}
+	}
+
+	@Override
+	public synchronized void onSensorChanged(SensorEvent event) {
+		if (mListener == null || event.sensor.getType() != Sensor.TYPE_ACCELEROMETER) {
+			return;
+		}
+		int i = mCount;
+		mTimestamps[i] = event.timestamp;
+		mXyz[3 * i] = event.values[0];
+		mXyz[3 * i + 1] = event.values[1];
+		mXyz[3 * i + 2] = event.values[2];
+		mCount = i + 1;
+		if (mCount == mTimestamps.length || event.timestamp - mTimestamps[0] >= mMaxReportLatencyNanos) {
+			deliver();
+		}
+	}
+
+	private void deliver() {
+		if (mCount > 0 && mListener != null) {
+			mListener.onSamples(mTimestamps, mXyz, mCount);
+		}
+		mCount = 0;
+	}
+
+	@Override
+	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+	}
+}
@@ -0,0 +1,277 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AsyncStepDispatcher class, hands steps from the sensor thread to a consumer
+ * thread that calls the listeners, so slow listeners don't stall the sample
+ * processing. The steps travel through a bounded lock-free ring buffer of
+ * primitives, the {@link Policy} decides what happens when it is full.
+ *
+ * There must be a single producer thread, i.e. the detector must be pushed
+ * from one thread at a time.
+ *
+ */
+public class AsyncStepDispatcher {
+
+	/**
+	 * Behaviour of {@link AsyncStepDispatcher#offer} on a full buffer.
+	 */
+	public enum Policy {
+		/** drop the oldest queued step to make room */
+		DROP_OLDEST,
+		/** wait until the consumer makes room */
+		BLOCK,
+		/**
+		 * merge the overflowing steps into one step carrying the latest
+		 * timestamp and the summed duration and stride length
+		 */
+		COALESCE
+	}
+
+	// the blocked producer polls for room, the consumer doesn't wake it
+	private static final long BLOCK_PARK_NANOS = 1000000; // 1 ms
+
+	private final HeadlessStepDetector mDetector;
+	private final Policy mPolicy;
+	private final int mMask;
+	private final long[] mTimestamps;
+	private final double[] mDurations;
+	private final double[] mStrideLengths;
+
+	// head is advanced by the consumer, and by the producer when dropping
+	private final AtomicLong mHead = new AtomicLong();
+	private final AtomicLong mTail = new AtomicLong();
+
+	private static final int OVERFLOW_EMPTY = 0, OVERFLOW_WRITING = 1, OVERFLOW_FULL = 2, OVERFLOW_READING = 3;
+	private final AtomicInteger mOverflowState = new AtomicInteger(OVERFLOW_EMPTY);
+	private long mOverflowTimestamp;
+	private double mOverflowDuration;
+	private double mOverflowStrideLength;
+
+	private final Thread mConsumer;
+	private volatile boolean mConsumerWaiting;
+	private volatile boolean mRunning = true;
+	private volatile long mDropped;
+
+	/**
+	 * Starts the consumer thread.
+	 *
+	 * @param detector
+	 *            detector whose listeners receive the steps
+	 * @param capacity
+	 *            buffer capacity, rounded up to a power of two
+	 */
+	AsyncStepDispatcher(HeadlessStepDetector detector, int capacity, Policy policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		mDetector = detector;
+		mPolicy = policy;
+		mMask = size - 1;
+		mTimestamps = new long[size];
+		mDurations = new double[size];
+		mStrideLengths = new double[size];
+
+		mConsumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				consume();
+			}
+		}, "step-dispatch");
+		mConsumer.setDaemon(true);
+		mConsumer.start();
+	}
+
+	public Policy getPolicy() {
+		return mPolicy;
+	}
+
+	/**
+	 * @return number of steps dropped by the DROP_OLDEST policy
+	 */
+	public long getDroppedCount() {
+		return mDropped;
+	}
+
+	/**
+	 * Queues a step, called on the producer thread. Once the dispatcher is
+	 * shut down, the step and anything still queued are delivered on the
+	 * calling thread instead, so no step is lost to the shutdown.
+	 *
+	 * @return false when the step was dropped or coalesced
+	 */
+	boolean offer(long timestamp, double duration, double strideLength) {
+		if (mPolicy == Policy.COALESCE && mOverflowState.get() != OVERFLOW_EMPTY) {
+			// keep the order, nothing may overtake a pending overflow step
+			coalesce(timestamp, duration, strideLength);
+			published();
+			return false;
+		}
+		long tail = mTail.get();
+		while (mRunning) {
+			long head = mHead.get();
+			if (tail - head <= mMask) {
+				int slot = (int) (tail & mMask);
+				mTimestamps[slot] = timestamp;
+				mDurations[slot] = duration;
+				mStrideLengths[slot] = strideLength;
+				// a full store, so it is ordered before the read of mRunning
+				// in published()
+				mTail.set(tail + 1);
+				published();
+				return true;
+			}
+			switch (mPolicy) {
+			case DROP_OLDEST:
+				if (mHead.compareAndSet(head, head + 1)) {
+					mDropped++;
+				}
+				break;
+			case BLOCK:
+				wakeConsumer();
+				LockSupport.parkNanos(BLOCK_PARK_NANOS);
+				break;
+			case COALESCE:
+				coalesce(timestamp, duration, strideLength);
+				published();
+				return false;
+			}
+		}
+		// shut down, the consumer may be gone already
+		drain();
+		deliver(timestamp, duration, strideLength);
+		return true;
+	}
+
+	/**
+	 * Called after a step was queued. The consumer checks mRunning before its
+	 * final drain, so when the producer still sees it running the consumer
+	 * will see the step; otherwise the producer delivers it itself.
+	 */
+	private void published() {
+		wakeConsumer();
+		if (!mRunning) {
+			drain();
+		}
+	}
+
+	private void coalesce(long timestamp, double duration, double strideLength) {
+		while (true) {
+			int state = mOverflowState.get();
+			if (state == OVERFLOW_READING) {
+				// the consumer is copying the slot out, a few loads
+				Thread.yield();
+				continue;
+			}
+			if (mOverflowState.compareAndSet(state, OVERFLOW_WRITING)) {
+				if (state == OVERFLOW_FULL) {
+					mOverflowDuration += duration;
+					mOverflowStrideLength += strideLength;
+				} else {
+					mOverflowDuration = duration;
+					mOverflowStrideLength = strideLength;
+				}
+				mOverflowTimestamp = timestamp;
+				mOverflowState.set(OVERFLOW_FULL);
+				return;
+			}
+		}
+	}
+
+	private void wakeConsumer() {
+		if (mConsumerWaiting) {
+			LockSupport.unpark(mConsumer);
+		}
+	}
+
+	private void consume() {
+		while (true) {
+			if (deliverNext()) {
+				continue;
+			}
+			if (!mRunning) {
+				// steps queued before the producer saw the shutdown
+				drain();
+				return;
+			}
+			// the producer publishes and then reads the flag, the consumer sets
+			// the flag and then reads the queue; with both volatile one of
+			// them sees the other, so a step never waits for a wakeup. The
+			// shutdown unparks unconditionally.
+			mConsumerWaiting = true;
+			if (mHead.get() == mTail.get() && mOverflowState.get() != OVERFLOW_FULL && mRunning) {
+				LockSupport.park(this);
+			}
+			mConsumerWaiting = false;
+		}
+	}
+
+	private void drain() {
+		while (deliverNext()) {
+		}
+	}
+
+	/**
+	 * Delivers the oldest queued step, the consumer and, after the shutdown,
+	 * the producer claim the steps by advancing the head.
+	 *
+	 * @return false when nothing was queued
+	 */
+	private boolean deliverNext() {
+		long head = mHead.get();
+		if (head != mTail.get()) {
+			int slot = (int) (head & mMask);
+			long timestamp = mTimestamps[slot];
+			double duration = mDurations[slot];
+			double strideLength = mStrideLengths[slot];
+			// fails when the slot was dropped or claimed meanwhile
+			if (mHead.compareAndSet(head, head + 1)) {
+				deliver(timestamp, duration, strideLength);
+			}
+			return true;
+		}
+		if (mOverflowState.compareAndSet(OVERFLOW_FULL, OVERFLOW_READING)) {
+			long timestamp = mOverflowTimestamp;
+			double duration = mOverflowDuration;
+			double strideLength = mOverflowStrideLength;
+			mOverflowState.set(OVERFLOW_EMPTY);
+			deliver(timestamp, duration, strideLength);
+			return true;
+		}
+		return false;
+	}
+
+	private void deliver(long timestamp, double duration, double strideLength) {
+		try {
+			mDetector.dispatchStep(timestamp, duration, strideLength);
+		} catch (RuntimeException e) {
+			// a failing listener must not stop the delivery to the others
+			Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+			if (handler != null) {
+				handler.uncaughtException(Thread.currentThread(), e);
+			}
+		}
+	}
+
+	/**
+	 * Delivers the queued steps and stops the consumer thread. Steps offered
+	 * from now on are delivered synchronously by {@link #offer}. Called from
+	 * a listener, i.e. on the consumer thread, it returns at once and the
+	 * consumer finishes the delivery after the listener returns.
+	 */
+	void shutdown() throws InterruptedException {
+		mRunning = false;
+		if (Thread.currentThread() == mConsumer) {
+			return;
+		}
+		LockSupport.unpark(mConsumer);
+		mConsumer.join();
+	}
+}
@@ -0,0 +1,13 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * Which acceleration signal a detector works on.
+ */
+public enum AxisMode {
+	/** the device z axis, depends on the device orientation */
+	Z_AXIS,
+	/** magnitude of the acceleration vector, orientation invariant */
+	MAGNITUDE,
+	/** projection onto the low-pass gravity estimate, orientation invariant */
+	VERTICAL
+}
@@ -0,0 +1,238 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Arrays;
+
+/**
+ * BlockCrossCorrelationBank class, cross-correlates a signal with a bank of
+ * kernels using overlap-save FFT convolution. The correlation of kernel h at
+ * sample n is c(n) = sum h(m) x(n - M + 1 + m), i.e. the kernel is aligned
+ * with the last M samples, oldest first.
+ *
+ * Samples are collected into blocks of L = N - M + 1, each block costs one
+ * forward FFT of size N plus one inverse FFT per pair of kernels, the two
+ * real outputs of a pair share a complex transform. The per-sample cost grows
+ * with log(N) instead of with kernel length times bank size. Streaming
+ * outputs become available at block boundaries.
+ *
+ */
+public class BlockCrossCorrelationBank {
+
+	private final int mKernelCount;
+	private final int mKernelLength;
+	private final int mFftSize;
+	private final int mBlockLength;
+	private final PrimitiveFFT mFFT;
+
+	// spectra of the reversed kernels, combined in pairs as G(2p) + j G(2p+1)
+	private final double[][] mPairRe, mPairIm;
+
+	private final double[] mInput;
+	private int mInputCount;
+	private final double[] mSignalRe, mSignalIm;
+	private final double[] mWorkRe, mWorkIm;
+
+	private final double[][] mBlockOutput;
+	private final double[] mValues;
+	private final double[] mMaximums;
+
+	/**
+	 * @param kernels
+	 *            kernels, shorter ones are padded with zeros at the start
+	 * @param minBlockLength
+	 *            minimal number of samples per block
+	 */
+	public BlockCrossCorrelationBank(double[][] kernels, int minBlockLength) {
+		mKernelCount = kernels.length;
+		int length = 1;
+		for (double[] kernel : kernels) {
+			length = Math.max(length, kernel.length);
+		}
+		mKernelLength = length;
+		int size = Integer.highestOneBit(mKernelLength - 1 + Math.max(1, minBlockLength) - 1) << 1;
+		mFftSize = Math.max(2, size);
+		mBlockLength = mFftSize - mKernelLength + 1;
+		mFFT = new PrimitiveFFT(mFftSize);
+
+		int pairs = (mKernelCount + 1) / 2;
+		mPairRe = new double[pairs][mFftSize];
+		mPairIm = new double[pairs][mFftSize];
+		double[] re = new double[mFftSize];
+		double[] im = new double[mFftSize];
+		for (int k = 0; k < mKernelCount; k++) {
+			Arrays.fill(re, 0);
+			Arrays.fill(im, 0);
+			double[] kernel = kernels[k];
+			int padding = mKernelLength - kernel.length;
+			// reversed kernel turns the correlation into a convolution
+			for (int m = 0; m < kernel.length; m++) {
+				re[mKernelLength - 1 - (padding + m)] = kernel[m];
+			}
+			mFFT.forward(re, im);
+			double[] pairRe = mPairRe[k / 2];
+			double[] pairIm = mPairIm[k / 2];
+			for (int i = 0; i < mFftSize; i++) {
+				if (k % 2 == 0) {
+					pairRe[i] += re[i];
+					pairIm[i] += im[i];
+				} else {
+					// j * G
+					pairRe[i] -= im[i];
+					pairIm[i] += re[i];
+				}
+			}
+		}
+
+		mInput = new double[mFftSize];
+		mInputCount = mKernelLength - 1;
+		mSignalRe = new double[mFftSize];
+		mSignalIm = new double[mFftSize];
+		mWorkRe = new double[mFftSize];
+		mWorkIm = new double[mFftSize];
+		mBlockOutput = new double[mKernelCount][mBlockLength];
+		mValues = new double[mKernelCount];
+		mMaximums = new double[mKernelCount];
+	}
+
+	/**
+	 * Bank of sine kernels of the given length, kernel i holds
+	 * frequencies[i] periods.
+	 */
+	public static BlockCrossCorrelationBank sineWaveBank(int size, float[] frequencies) {
+		double[][] kernels = new double[frequencies.length][size];
+		for (int k = 0; k < frequencies.length; k++) {
+			for (int i = 0; i < size; i++) {
+				kernels[k][i] = Math.sin(2 * Math.PI * frequencies[k] * i / size);
+			}
+		}
+		return new BlockCrossCorrelationBank(kernels, size);
+	}
+
+	public int getKernelCount() {
+		return mKernelCount;
+	}
+
+	/**
+	 * @return samples per block
+	 */
+	public int getBlockLength() {
+		return mBlockLength;
+	}
+
+	/**
+	 * Adds one sample, runs the block transform when a block is complete.
+	 *
+	 * @return true when new outputs became available
+	 */
+	public boolean push(double value) {
+		mInput[mInputCount++] = value;
+		if (mInputCount < mFftSize) {
+			return false;
+		}
+		processBlock();
+		return true;
+	}
+
+	private void processBlock() {
+		int n = mFftSize;
+		System.arraycopy(mInput, 0, mSignalRe, 0, n);
+		Arrays.fill(mSignalIm, 0);
+		mFFT.forward(mSignalRe, mSignalIm);
+
+		int valid = mKernelLength - 1;
+		for (int p = 0; p < mPairRe.length; p++) {
+			double[] pairRe = mPairRe[p];
+			double[] pairIm = mPairIm[p];
+			for (int i = 0; i < n; i++) {
+				double xr = mSignalRe[i];
+				double xi = mSignalIm[i];
+				mWorkRe[i] = xr * pairRe[i] - xi * pairIm[i];
+				mWorkIm[i] = xr * pairIm[i] + xi * pairRe[i];
+			}
+			mFFT.inverse(mWorkRe, mWorkIm);
+			collect(2 * p, mWorkRe, valid);
+			if (2 * p + 1 < mKernelCount) {
+				collect(2 * p + 1, mWorkIm, valid);
+			}
+		}
+
+		// keep the last M - 1 samples as the history of the next block
+		System.arraycopy(mInput, mBlockLength, mInput, 0, valid);
+		mInputCount = valid;
+	}
+
+	private void collect(int kernel, double[] result, int valid) {
+		double[] output = mBlockOutput[kernel];
+		double maximum = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < mBlockLength; i++) {
+			double value = result[valid + i];
+			output[i] = value;
+			if (value > maximum) {
+				maximum = value;
+			}
+		}
+		mValues[kernel] = output[mBlockLength - 1];
+		mMaximums[kernel] = maximum;
+	}
+
+	/**
+	 * @return correlation of each kernel at the last sample of the latest
+	 *         block, the array is reused
+	 */
+	public double[] getValues() {
+		return mValues;
+	}
+
+	/**
+	 * @return maximum correlation of each kernel over the latest block, the
+	 *         array is reused
+	 */
+	public double[] getMaximums() {
+		return mMaximums;
+	}
+
+	/**
+	 * @return correlations of the kernel for every sample of the latest block,
+	 *         the array is reused
+	 */
+	public double[] getBlockOutput(int kernel) {
+		return mBlockOutput[kernel];
+	}
+
+	/**
+	 * Clears the signal history.
+	 */
+	public void reset() {
+		Arrays.fill(mInput, 0);
+		mInputCount = mKernelLength - 1;
+		Arrays.fill(mValues, 0);
+		Arrays.fill(mMaximums, 0);
+	}
+
+	/**
+	 * Correlates a whole trace, the signal before offset is taken as zero.
+	 * Resets the streaming state.
+	 *
+	 * @param output
+	 *            output[k][i] receives the correlation of kernel k at sample
+	 *            offset + i
+	 */
+	public void correlate(double[] signal, int offset, int length, double[][] output) {
+		reset();
+		int written = 0;
+		int end = offset + length;
+		int i = offset;
+		while (written < length) {
+			// pad the last block with zeros
+			double value = i < end ? signal[i] : 0;
+			i++;
+			if (push(value)) {
+				int count = Math.min(mBlockLength, length - written);
+				for (int k = 0; k < mKernelCount; k++) {
+					System.arraycopy(mBlockOutput[k], 0, output[k], written, count);
+				}
+				written += count;
+			}
+		}
+		reset();
+	}
+}
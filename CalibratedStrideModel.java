@@ -0,0 +1,57 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * CalibratedStrideModel class, per-user linear model of the stride length in
+ * the stride frequency: length = intercept + slope / duration.
+ */
+public class CalibratedStrideModel implements IStrideModel {
+
+	private final double intercept;
+	private final double slope;
+
+	public CalibratedStrideModel(double intercept, double slope) {
+		this.intercept = intercept;
+		this.slope = slope;
+	}
+
+	public double getIntercept() {
+		return intercept;
+	}
+
+	public double getSlope() {
+		return slope;
+	}
+
+	@Override
+	public double getStrideLength(double duration) {
+		return intercept + slope / duration;
+	}
+
+	/**
+	 * Least squares fit of the model to measured strides of one user.
+	 * 
+	 * @param durations
+	 *            stride durations in seconds
+	 * @param lengths
+	 *            measured stride lengths in meters
+	 * @param count
+	 *            number of strides, at least two with different durations
+	 */
+	public static CalibratedStrideModel calibrate(double[] durations, double[] lengths, int count) {
+		double sumF = 0, sumL = 0, sumFF = 0, sumFL = 0;
+		for (int i = 0; i < count; i++) {
+			double frequency = 1.0 / durations[i];
+			sumF += frequency;
+			sumL += lengths[i];
+			sumFF += frequency * frequency;
+			sumFL += frequency * lengths[i];
+		}
+		double denominator = count * sumFF - sumF * sumF;
+		if (count < 2 || denominator == 0) {
+			throw new IllegalArgumentException("need at least two strides with different durations");
+		}
+		double slope = (count * sumFL - sumF * sumL) / denominator;
+		double intercept = (sumL - slope * sumF) / count;
+		return new CalibratedStrideModel(intercept, slope);
+	}
+}
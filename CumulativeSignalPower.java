@@ -0,0 +1,50 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * CumulativeSignalPower class, sum of the squared samples since the last
+ * reset. The sum is compensated (Neumaier) against rounding drift.
+ *
+ */
+public final class CumulativeSignalPower {
+
+	private double mSum;
+	private double mCompensation;
+
+	/**
+	 * @param timestamp
+	 *            unused, kept for symmetry with the windowed filters
+	 */
+	public void push(long timestamp, double value) {
+		double square = value * value;
+		double sum = mSum + square;
+		if (mSum >= square) {
+			mCompensation += (mSum - sum) + square;
+		} else {
+			mCompensation += (square - sum) + mSum;
+		}
+		mSum = sum;
+	}
+
+	public double getValue() {
+		return mSum + mCompensation;
+	}
+
+	public void writeState(DataOutput out) throws IOException {
+		out.writeDouble(mSum);
+		out.writeDouble(mCompensation);
+	}
+
+	public void readState(DataInput in) throws IOException {
+		mSum = in.readDouble();
+		mCompensation = in.readDouble();
+	}
+
+	public void reset() {
+		mSum = 0;
+		mCompensation = 0;
+	}
+}
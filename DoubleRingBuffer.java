@@ -0,0 +1,242 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * DoubleRingBuffer class, fixed capacity time series of primitive doubles,
+ * each value with an optional timestamp. Pushing into a full buffer
+ * overwrites the oldest value, nothing is allocated after construction.
+ * Index 0 is the oldest value.
+ *
+ * The contents are read by index, copied out into a caller array, or through
+ * a {@link Snapshot} view that keeps the values of the moment it was taken
+ * without copying them.
+ *
+ */
+public class DoubleRingBuffer {
+
+	private final long[] mTimestamps;
+	private final double[] mValues;
+	private final int mOffset;
+	private final int mCapacity;
+	private int mHead; // index of the oldest value
+	private int mSize;
+	// values written so far, tells a snapshot whether its values still exist
+	private long mWritten;
+
+	public DoubleRingBuffer(int capacity) {
+		this(new long[checkCapacity(capacity)], new double[capacity], 0, capacity);
+	}
+
+	/**
+	 * Buffer over a slice of arrays shared with other buffers, so many of them
+	 * can live in one contiguous block.
+	 */
+	DoubleRingBuffer(long[] timestamps, double[] values, int offset, int capacity) {
+		checkCapacity(capacity);
+		if (offset < 0 || offset + capacity > values.length || offset + capacity > timestamps.length) {
+			throw new IllegalArgumentException("slice " + offset + "+" + capacity + " out of the arrays");
+		}
+		mTimestamps = timestamps;
+		mValues = values;
+		mOffset = offset;
+		mCapacity = capacity;
+	}
+
+	private static int checkCapacity(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		return capacity;
+	}
+
+	public int capacity() {
+		return mCapacity;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	public boolean isFull() {
+		return mSize == mCapacity;
+	}
+
+	/**
+	 * Appends a value with timestamp 0, drops the oldest one when full.
+	 */
+	public void push(double value) {
+		push(0, value);
+	}
+
+	/**
+	 * Appends a value, drops the oldest one when full.
+	 */
+	public void push(long timestamp, double value) {
+		int tail = mHead + mSize;
+		if (tail >= mCapacity) {
+			tail -= mCapacity;
+		}
+		mTimestamps[mOffset + tail] = timestamp;
+		mValues[mOffset + tail] = value;
+		if (mSize < mCapacity) {
+			mSize++;
+		} else {
+			mHead = mHead + 1 == mCapacity ? 0 : mHead + 1;
+		}
+		mWritten++;
+	}
+
+	/**
+	 * Removes the oldest value.
+	 *
+	 * @return the value removed
+	 * @throws NoSuchElementException
+	 *             when empty
+	 */
+	public double removeOldest() {
+		if (mSize == 0) {
+			throw new NoSuchElementException("empty");
+		}
+		double value = mValues[mOffset + mHead];
+		mHead = mHead + 1 == mCapacity ? 0 : mHead + 1;
+		mSize--;
+		return value;
+	}
+
+	/**
+	 * @param index
+	 *            0 for the oldest value, size() - 1 for the newest
+	 */
+	public double get(int index) {
+		return mValues[position(index)];
+	}
+
+	public long getTimestamp(int index) {
+		return mTimestamps[position(index)];
+	}
+
+	private int position(int index) {
+		if (index < 0 || index >= mSize) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+		}
+		int i = mHead + index;
+		return mOffset + (i < mCapacity ? i : i - mCapacity);
+	}
+
+	public double oldest() {
+		return get(0);
+	}
+
+	public long oldestTimestamp() {
+		return getTimestamp(0);
+	}
+
+	public double newest() {
+		return get(mSize - 1);
+	}
+
+	/**
+	 * Copies the values, oldest first, into the caller's array.
+	 */
+	public void copyTo(double[] target, int offset) {
+		copyTo(mHead, mSize, target, offset);
+	}
+
+	private void copyTo(int head, int size, double[] target, int offset) {
+		int first = Math.min(size, mCapacity - head);
+		System.arraycopy(mValues, mOffset + head, target, offset, first);
+		System.arraycopy(mValues, mOffset, target, offset + first, size - first);
+	}
+
+	/**
+	 * Fills the buffer to its capacity with the value.
+	 */
+	public void fill(double value) {
+		Arrays.fill(mValues, mOffset, mOffset + mCapacity, value);
+		Arrays.fill(mTimestamps, mOffset, mOffset + mCapacity, 0);
+		mHead = 0;
+		mSize = mCapacity;
+		mWritten += mCapacity;
+	}
+
+	/**
+	 * Empties the buffer, snapshots taken before stay readable until their
+	 * values are overwritten.
+	 */
+	public void clear() {
+		int tail = mHead + mSize;
+		mHead = tail < mCapacity ? tail : tail - mCapacity;
+		mSize = 0;
+	}
+
+	/**
+	 * Points the snapshot at the current contents, nothing is copied or
+	 * allocated.
+	 *
+	 * @return the snapshot passed in
+	 */
+	public Snapshot snapshot(Snapshot snapshot) {
+		snapshot.mBuffer = this;
+		snapshot.mHead = mHead;
+		snapshot.mSize = mSize;
+		snapshot.mWritten = mWritten;
+		return snapshot;
+	}
+
+	/**
+	 * Read-only view of the contents of a buffer at the time of
+	 * {@link DoubleRingBuffer#snapshot(Snapshot)}. Later pushes don't show in
+	 * it; once they overwrite one of its values, reading that value throws.
+	 * Meant to be reused, take a new snapshot into the same instance. Same
+	 * thread as the buffer only.
+	 */
+	public static final class Snapshot {
+
+		private DoubleRingBuffer mBuffer;
+		private int mHead;
+		private int mSize;
+		private long mWritten;
+
+		public int size() {
+			return mSize;
+		}
+
+		public double get(int index) {
+			return mBuffer.mValues[position(index)];
+		}
+
+		public long getTimestamp(int index) {
+			return mBuffer.mTimestamps[position(index)];
+		}
+
+		/**
+		 * Copies the values, oldest first, into the caller's array.
+		 */
+		public void copyTo(double[] target, int offset) {
+			if (mSize > 0) {
+				position(0);
+			}
+			mBuffer.copyTo(mHead, mSize, target, offset);
+		}
+
+		private int position(int index) {
+			if (index < 0 || index >= mSize) {
+				throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+			}
+			DoubleRingBuffer buffer = mBuffer;
+			// writes since the value went in, the buffer has wrapped over it
+			// after capacity of them
+			if (buffer.mWritten - (mWritten - mSize + index) > buffer.mCapacity) {
+				throw new IllegalStateException("snapshot value " + index + " was overwritten");
+			}
+			int i = mHead + index;
+			return buffer.mOffset + (i < buffer.mCapacity ? i : i - buffer.mCapacity);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * DurationStrideModel class, uses the stride length vs. frequency dependency
+ * to compute the stride length from the stride duration.
+ */
+public class DurationStrideModel implements IStrideModel {
+
+	private final double factor;
+	private final double referenceStrideLength;
+
+	/**
+	 * @param referenceStrideLength
+	 *            is a reference stride length to calibrate the model
+	 * @param factor
+	 *            is a linear correction factor (leg length or person height can
+	 *            be used as basis)
+	 */
+	public DurationStrideModel(double referenceStrideLength, double factor) {
+		this.referenceStrideLength = referenceStrideLength;
+		this.factor = factor;
+	}
+
+	@Override
+	public double getStrideLength(double duration) {
+		return factor * (0.3608 + 0.1639 / duration) * referenceStrideLength;
+	}
+}
@@ -0,0 +1,293 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * EnsembleStepDetector class, runs several step detector variants side by
+ * side on one input stream for A/B evaluation. The moving average variants
+ * share their upstream stages: one short moving average per distinct short
+ * window, one long moving average, cumulative power and crossover state per
+ * distinct pair of windows. Only the power thresholds and the stride timing
+ * are evaluated per variant, so variants that differ in thresholds cost
+ * little more than one detector. Other detectors, e.g. the spectral one, can
+ * be added as opaque variants that get every sample.
+ *
+ * The steps of each variant go to the {@link IVariantStepListener}s, the
+ * ensemble's own step listeners receive the majority vote: a step is emitted
+ * when more than half of the variants report a step within
+ * {@link #VOTE_WINDOW} of the first one, with the duration and stride length
+ * of the deciding variant.
+ *
+ */
+public class EnsembleStepDetector extends HeadlessStepDetector {
+
+	public static final double VOTE_WINDOW = 0.25; // in seconds
+	public static final int MAX_VARIANTS = 64;
+
+	private static final long SECOND_IN_NANOSECONDS = (long) Math.pow(10, 9);
+
+	private final int mVariantCount;
+	private final int mMovingAverageCount;
+
+	// shared stages
+	private final TimeWindowedMovingAverage[] mShortAverages;
+	private final float[] mShortValues;
+	private final int[] mPairShort;
+	private final TimeWindowedMovingAverage[] mLongAverages;
+	private final CumulativeSignalPower[] mPowers;
+	private final boolean[] mSwapStates;
+	private final boolean[] mPairSteps;
+	private final float[] mPairPowers;
+
+	// per moving average variant
+	private final int[] mVariantPair;
+	private final float[] mLowPowerCutoffs, mHighPowerCutoffs;
+	private final long[] mLastStepTimestamps;
+
+	private final HeadlessStepDetector[] mDetectors;
+	private final long[] mStepCounts;
+
+	private float mPowerScale = 1;
+	private AccelerationKernel mKernel = new AccelerationKernel(AxisMode.Z_AXIS);
+	private IStrideModel mStrideModel = new HeightStrideModel(MovingAverageStepDetectorCore.DEFAULT_HEIGHT);
+	private volatile IVariantStepListener[] mVariantListeners = new IVariantStepListener[0];
+
+	// current ballot, a bit per variant that voted
+	private final long mVoteWindow;
+	private long mBallot;
+	private long mBallotStart = Long.MIN_VALUE;
+	private boolean mBallotDecided;
+	private double mVoteStrideLength;
+
+	public EnsembleStepDetector(List<MovingAverageConfiguration> configurations) {
+		this(configurations, Collections.<HeadlessStepDetector> emptyList());
+	}
+
+	/**
+	 * @param configurations
+	 *            moving average variants, indexed first
+	 * @param detectors
+	 *            opaque variants, indexed after the moving average ones
+	 */
+	public EnsembleStepDetector(List<MovingAverageConfiguration> configurations,
+			List<HeadlessStepDetector> detectors) {
+		mMovingAverageCount = configurations.size();
+		mVariantCount = mMovingAverageCount + detectors.size();
+		if (mVariantCount < 1 || mVariantCount > MAX_VARIANTS) {
+			throw new IllegalArgumentException("between 1 and " + MAX_VARIANTS + " variants are supported");
+		}
+		mVoteWindow = (long) (VOTE_WINDOW * SECOND_IN_NANOSECONDS);
+
+		// find the distinct stages
+		List<Double> shortWindows = new ArrayList<Double>();
+		List<double[]> pairs = new ArrayList<double[]>();
+		mVariantPair = new int[mMovingAverageCount];
+		mLowPowerCutoffs = new float[mMovingAverageCount];
+		mHighPowerCutoffs = new float[mMovingAverageCount];
+		for (int v = 0; v < mMovingAverageCount; v++) {
+			MovingAverageConfiguration configuration = configurations.get(v);
+			double[] pair = { configuration.getWindowMa1(), configuration.getWindowMa2() };
+			int p = 0;
+			while (p < pairs.size() && !Arrays.equals(pairs.get(p), pair)) {
+				p++;
+			}
+			if (p == pairs.size()) {
+				pairs.add(pair);
+			}
+			if (!shortWindows.contains(pair[0])) {
+				shortWindows.add(pair[0]);
+			}
+			mVariantPair[v] = p;
+			mLowPowerCutoffs[v] = (float) configuration.getLowPowerCutoff();
+			mHighPowerCutoffs[v] = (float) configuration.getHighPowerCutoff();
+		}
+		mLastStepTimestamps = new long[mMovingAverageCount];
+
+		mShortAverages = new TimeWindowedMovingAverage[shortWindows.size()];
+		mShortValues = new float[shortWindows.size()];
+		for (int s = 0; s < mShortAverages.length; s++) {
+			mShortAverages[s] = new TimeWindowedMovingAverage(shortWindows.get(s));
+		}
+		int pairCount = pairs.size();
+		mPairShort = new int[pairCount];
+		mLongAverages = new TimeWindowedMovingAverage[pairCount];
+		mPowers = new CumulativeSignalPower[pairCount];
+		mSwapStates = new boolean[pairCount];
+		mPairSteps = new boolean[pairCount];
+		mPairPowers = new float[pairCount];
+		for (int p = 0; p < pairCount; p++) {
+			mPairShort[p] = shortWindows.indexOf(pairs.get(p)[0]);
+			mLongAverages[p] = new TimeWindowedMovingAverage(pairs.get(p)[1]);
+			mPowers[p] = new CumulativeSignalPower();
+			mSwapStates[p] = true;
+		}
+
+		mDetectors = detectors.toArray(new HeadlessStepDetector[detectors.size()]);
+		for (int d = 0; d < mDetectors.length; d++) {
+			final int variant = mMovingAverageCount + d;
+			mDetectors[d].addPrimitiveStepListener(new IPrimitiveStepListener() {
+				@Override
+				public void onStep(long timestamp, double duration, double strideLength) {
+					onVariantStep(variant, timestamp, duration, strideLength);
+				}
+			});
+		}
+		mStepCounts = new long[mVariantCount];
+	}
+
+	public int getVariantCount() {
+		return mVariantCount;
+	}
+
+	/**
+	 * @return number of short moving averages actually computed
+	 */
+	public int getShortAverageCount() {
+		return mShortAverages.length;
+	}
+
+	/**
+	 * @return number of long moving average, power and crossover stages
+	 *         actually computed
+	 */
+	public int getLongAverageCount() {
+		return mLongAverages.length;
+	}
+
+	/**
+	 * Reads the counter on the detector thread.
+	 */
+	public long getStepCount(int variant) {
+		return mStepCounts[variant];
+	}
+
+	/**
+	 * Selects the signal of the moving average variants, see
+	 * {@link MovingAverageStepDetectorCore#setAxisMode(AxisMode)}.
+	 */
+	public void setAxisMode(AxisMode mode) {
+		mKernel = new AccelerationKernel(mode);
+	}
+
+	/**
+	 * Scales the shared power stages and passes the ratio on to the other
+	 * detectors, they see the same resampled samples.
+	 *
+	 * @see MovingAverageStepDetectorCore#setRateRatio(double)
+	 */
+	@Override
+	public void setRateRatio(double ratio) {
+		mPowerScale = (float) ratio;
+		for (int d = 0; d < mDetectors.length; d++) {
+			mDetectors[d].setRateRatio(ratio);
+		}
+	}
+
+	public void setStrideModel(IStrideModel strideModel) {
+		mStrideModel = strideModel;
+	}
+
+	public synchronized void addVariantListener(IVariantStepListener listener) {
+		if (listener != null) {
+			IVariantStepListener[] listeners = Arrays.copyOf(mVariantListeners, mVariantListeners.length + 1);
+			listeners[listeners.length - 1] = listener;
+			mVariantListeners = listeners;
+		}
+	}
+
+	public synchronized void removeVariantListener(IVariantStepListener listener) {
+		IVariantStepListener[] listeners = mVariantListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				IVariantStepListener[] result = Arrays.copyOf(listeners, listeners.length - 1);
+				System.arraycopy(listeners, i + 1, result, i, listeners.length - i - 1);
+				mVariantListeners = result;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return stride length of the majority vote step decided on this sample,
+	 *         NO_STEP otherwise
+	 */
+	@Override
+	public double push(long timestampNanos, float x, float y, float z) {
+		mVoteStrideLength = NO_STEP;
+		float value = mKernel.project(timestampNanos, x, y, z);
+
+		for (int s = 0; s < mShortAverages.length; s++) {
+			mShortAverages[s].push(timestampNanos, value);
+			mShortValues[s] = (float) mShortAverages[s].getAverage();
+		}
+
+		// the same arithmetic as MovingAverageStepDetectorCore, so a variant
+		// detects exactly the steps of a standalone detector
+		for (int p = 0; p < mLongAverages.length; p++) {
+			float shortAverage = mShortValues[mPairShort[p]];
+			mLongAverages[p].push(timestampNanos, shortAverage);
+			float longAverage = (float) mLongAverages[p].getAverage();
+			boolean stepDetected = false;
+			boolean newSwapState = shortAverage > longAverage;
+			if (newSwapState != mSwapStates[p]) {
+				mSwapStates[p] = newSwapState;
+				stepDetected = newSwapState;
+			}
+			mPowers[p].push(timestampNanos, shortAverage - longAverage);
+			mPairPowers[p] = (float) mPowers[p].getValue() * mPowerScale;
+			mPairSteps[p] = stepDetected;
+			if (stepDetected) {
+				mPowers[p].reset();
+			}
+		}
+
+		for (int v = 0; v < mMovingAverageCount; v++) {
+			int p = mVariantPair[v];
+			if (!mPairSteps[p]) {
+				continue;
+			}
+			float power = mPairPowers[p];
+			if (power < mLowPowerCutoffs[v] || power > mHighPowerCutoffs[v]) {
+				continue;
+			}
+			double strideDuration = (double) (timestampNanos - mLastStepTimestamps[v]) / SECOND_IN_NANOSECONDS;
+			mLastStepTimestamps[v] = timestampNanos;
+			if (strideDuration <= MovingAverageStepDetectorCore.MAX_STRIDE_DURATION
+					&& strideDuration >= MovingAverageStepDetectorCore.MIN_STRIDE_DURATION) {
+				double strideLength = Math.round(mStrideModel.getStrideLength(strideDuration) * 10000) / 10000.0;
+				onVariantStep(v, timestampNanos, strideDuration, strideLength);
+			}
+		}
+
+		for (int d = 0; d < mDetectors.length; d++) {
+			mDetectors[d].push(timestampNanos, x, y, z);
+		}
+		return mVoteStrideLength;
+	}
+
+	private void onVariantStep(int variant, long timestamp, double duration, double strideLength) {
+		mStepCounts[variant]++;
+		IVariantStepListener[] listeners = mVariantListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].onStep(variant, timestamp, duration, strideLength);
+		}
+
+		if (mBallotStart == Long.MIN_VALUE || timestamp - mBallotStart > mVoteWindow) {
+			mBallotStart = timestamp;
+			mBallot = 0;
+			mBallotDecided = false;
+		}
+		if (mBallotDecided) {
+			return;
+		}
+		mBallot |= 1L << variant;
+		if (2 * Long.bitCount(mBallot) > mVariantCount) {
+			mBallotDecided = true;
+			mVoteStrideLength = strideLength;
+			notifyOnStep(timestamp, duration, strideLength);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Arrays;
+
+/**
+ * Android-free step detector base class. Accepts raw accelerometer samples
+ * and notifies the registered step listeners. Can be used as a dummy step
+ * detector. Doesn't detect any steps.
+ *
+ */
+public class HeadlessStepDetector implements IStepDetector, ISampleBatchListener {
+
+	/** value returned by {@link #push} when the sample did not produce a step */
+	public static final double NO_STEP = -10;
+
+	// copy-on-write arrays, iterated without locking or allocation
+	private volatile IStepListener[] mStepListeners = new IStepListener[0];
+	private volatile IPrimitiveStepListener[] mPrimitiveStepListeners = new IPrimitiveStepListener[0];
+	private volatile AsyncStepDispatcher mDispatcher;
+	protected volatile StepDetectorMetrics mMetrics;
+	// false when an adapter around this detector records the step delivery
+	private volatile boolean mRecordsDelivery = true;
+	// steps reported so far and a hook seeing each of them as it is
+	// reported, detector thread only
+	private int mReportedSteps;
+	private IPrimitiveStepListener mStepTap;
+
+	public synchronized void addStepListener(IStepListener sl) {
+		if (sl != null) {
+			IStepListener[] listeners = Arrays.copyOf(mStepListeners, mStepListeners.length + 1);
+			listeners[listeners.length - 1] = sl;
+			mStepListeners = listeners;
+		}
+	}
+
+	public synchronized void removeStepListener(IStepListener sl) {
+		mStepListeners = remove(mStepListeners, sl);
+	}
+
+	/**
+	 * Registers an allocation-free step listener.
+	 */
+	public synchronized void addPrimitiveStepListener(IPrimitiveStepListener sl) {
+		if (sl != null) {
+			IPrimitiveStepListener[] listeners = Arrays.copyOf(mPrimitiveStepListeners,
+					mPrimitiveStepListeners.length + 1);
+			listeners[listeners.length - 1] = sl;
+			mPrimitiveStepListeners = listeners;
+		}
+	}
+
+	public synchronized void removePrimitiveStepListener(IPrimitiveStepListener sl) {
+		mPrimitiveStepListeners = remove(mPrimitiveStepListeners, sl);
+	}
+
+	private static <T> T[] remove(T[] listeners, T sl) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == sl) {
+				T[] result = Arrays.copyOf(listeners, listeners.length - 1);
+				System.arraycopy(listeners, i + 1, result, i, listeners.length - i - 1);
+				return result;
+			}
+		}
+		return listeners;
+	}
+
+	/**
+	 * Delivers the steps to the listeners on a separate thread from now on,
+	 * the detector's sample processing never waits for the listeners (unless
+	 * the BLOCK policy is chosen).
+	 *
+	 * @param capacity
+	 *            number of steps that can wait for delivery
+	 */
+	public synchronized void enableAsyncDispatch(int capacity, AsyncStepDispatcher.Policy policy) {
+		disableAsyncDispatch();
+		mDispatcher = new AsyncStepDispatcher(this, capacity, policy);
+	}
+
+	/**
+	 * Delivers the pending steps and returns to the synchronous dispatch.
+	 */
+	public synchronized void disableAsyncDispatch() {
+		AsyncStepDispatcher dispatcher = mDispatcher;
+		if (dispatcher == null) {
+			return;
+		}
+		mDispatcher = null;
+		try {
+			dispatcher.shutdown();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the asynchronous dispatcher, null in the synchronous mode
+	 */
+	public AsyncStepDispatcher getAsyncDispatcher() {
+		return mDispatcher;
+	}
+
+	/**
+	 * Starts collecting metrics into the given instance, null stops it.
+	 */
+	public void setMetrics(StepDetectorMetrics metrics) {
+		mMetrics = metrics;
+	}
+
+	/**
+	 * Collects the processing metrics of a detector wrapped by an adapter
+	 * that shares the metrics instance. Only the outermost detector records
+	 * the delivery latency, so every step is counted once and each histogram
+	 * keeps a single writer.
+	 */
+	void setWrappedMetrics(StepDetectorMetrics metrics) {
+		mRecordsDelivery = false;
+		setMetrics(metrics);
+	}
+
+	public StepDetectorMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * Tells the detector that a resampling front-end passes it one sample for
+	 * every ratio samples of the sensor, see {@link ResamplingStepDetector}.
+	 * Detectors with thresholds on sums over samples rescale the sums, so the
+	 * thresholds keep their meaning at the sensor rate. Does nothing by
+	 * default, must be called on the detector thread.
+	 */
+	public void setRateRatio(double ratio) {
+	}
+
+	/**
+	 * Processes one accelerometer sample.
+	 *
+	 * @param timestampNanos
+	 *            sensor timestamp in nanoseconds
+	 * @return stride length of the step detected on this sample, NO_STEP
+	 *         otherwise. A sample completing several steps at once returns
+	 *         the last one, the listeners and {@link #pushBatch} see all.
+	 */
+	public double push(long timestampNanos, float x, float y, float z) {
+		return NO_STEP;
+	}
+
+	/**
+	 * Processes a batch of samples interleaved as x, y, z triples, the same as
+	 * pushing them one by one. Detectors override it with a bulk path.
+	 *
+	 * @return number of steps detected in the batch
+	 */
+	public int pushBatch(long[] timestamps, float[] xyz, int count) {
+		int reported = mReportedSteps;
+		for (int i = 0; i < count; i++) {
+			push(timestamps[i], xyz[3 * i], xyz[3 * i + 1], xyz[3 * i + 2]);
+		}
+		return mReportedSteps - reported;
+	}
+
+	/**
+	 * Sets a listener called on the detector thread for every step as it is
+	 * reported, before any asynchronous dispatch. Used by the replay to
+	 * attribute the steps to the samples.
+	 */
+	void setStepTap(IPrimitiveStepListener tap) {
+		mStepTap = tap;
+	}
+
+	/**
+	 * Lets the detector consume an {@link ISensorSource} directly.
+	 */
+	@Override
+	public void onSamples(long[] timestamps, float[] xyz, int count) {
+		pushBatch(timestamps, xyz, count);
+	}
+
+	/**
+	 * Reports a step, directly or through the asynchronous dispatcher.
+	 */
+	protected void notifyOnStep(long timestamp, double duration, double strideLength) {
+		mReportedSteps++;
+		IPrimitiveStepListener tap = mStepTap;
+		if (tap != null) {
+			tap.onStep(timestamp, duration, strideLength);
+		}
+		AsyncStepDispatcher dispatcher = mDispatcher;
+		if (dispatcher != null) {
+			dispatcher.offer(timestamp, duration, strideLength);
+		} else {
+			dispatchStep(timestamp, duration, strideLength);
+		}
+	}
+
+	/**
+	 * Notifies the primitive listeners, the StepEvent for the IStepListeners
+	 * is only allocated when there are any.
+	 */
+	void dispatchStep(long timestamp, double duration, double strideLength) {
+		StepDetectorMetrics metrics = mMetrics;
+		if (metrics != null && mRecordsDelivery) {
+			metrics.recordDelivered(timestamp);
+		}
+		IPrimitiveStepListener[] primitiveListeners = mPrimitiveStepListeners;
+		for (int i = 0; i < primitiveListeners.length; i++) {
+			primitiveListeners[i].onStep(timestamp, duration, strideLength);
+		}
+		if (mStepListeners.length != 0) {
+			notifyOnStep(new StepEvent(1.0, duration));
+		}
+	}
+
+	protected void notifyOnStep(StepEvent event) {
+		IStepListener[] listeners = mStepListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].onStepEvent(event);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * HeightStrideModel class, stride length as a fixed fraction of the person
+ * height with optional gaussian noise. Doesn't depend on the stride duration.
+ *
+ * The noise is derived from the seed and the stride duration by hashing, so
+ * the model holds no mutable state and the same input always gives the same
+ * output.
+ */
+public class HeightStrideModel implements IStrideModel {
+
+	public static final double DEFAULT_NOISE_DEVIATION = 0.05;
+
+	private final double height;
+	private final double noiseDeviation;
+	private final long seed;
+
+	/**
+	 * Model with the default noise and seed 0.
+	 * 
+	 * @param height
+	 *            person height in meters
+	 */
+	public HeightStrideModel(double height) {
+		this(height, DEFAULT_NOISE_DEVIATION, 0);
+	}
+
+	/**
+	 * @param height
+	 *            person height in meters
+	 * @param noiseDeviation
+	 *            standard deviation of the gaussian noise, 0 for none
+	 * @param seed
+	 *            seed of the noise
+	 */
+	public HeightStrideModel(double height, double noiseDeviation, long seed) {
+		this.height = height;
+		this.noiseDeviation = noiseDeviation;
+		this.seed = seed;
+	}
+
+	@Override
+	public double getStrideLength(double duration) {
+		double strideLength = height * 0.45; //0.55
+		if (noiseDeviation != 0) {
+			strideLength += gaussian(seed ^ Double.doubleToLongBits(duration)) * noiseDeviation;
+		}
+		if (strideLength < 0.1)
+			return height * 0.415;
+		else
+			return strideLength;
+	}
+
+	/**
+	 * Standard normal variate from a 64-bit key, Box-Muller transform of two
+	 * SplitMix64 outputs.
+	 */
+	static double gaussian(long key) {
+		long a = mix(key);
+		long b = mix(a);
+		double u1 = ((a >>> 11) + 1) * 0x1.0p-53; // (0, 1]
+		double u2 = (b >>> 11) * 0x1.0p-53; // [0, 1)
+		return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+	}
+
+	private static long mix(long z) {
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
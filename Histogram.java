@@ -0,0 +1,148 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram class, counts values in power-of-two buckets: bucket 0 holds the
+ * values below unit, bucket i the values in [unit * 2^(i-1), unit * 2^i), the
+ * last bucket everything above. Recording is O(1) and allocates nothing.
+ *
+ * Meant for a single writer thread, which also owns {@link #reset()}. The
+ * writer publishes every field with an ordered store, so readers on other
+ * threads never see a torn value and see each update soon after it is made;
+ * fields read one after another may be from different records.
+ *
+ */
+public class Histogram {
+
+	private static final int TOTAL_COUNT = 0;
+	private static final int SUM = 1;
+	private static final int MIN = 2;
+	private static final int MAX = 3;
+
+	private final double mUnit;
+	private final AtomicLongArray mCounts;
+	// total count, and sum, min and max as raw double bits
+	private final AtomicLongArray mStats = new AtomicLongArray(4);
+
+	/**
+	 * @param unit
+	 *            upper bound of the first bucket
+	 * @param buckets
+	 *            number of buckets
+	 */
+	public Histogram(double unit, int buckets) {
+		if (unit <= 0 || buckets < 2) {
+			throw new IllegalArgumentException("unit must be positive, at least two buckets");
+		}
+		mUnit = unit;
+		mCounts = new AtomicLongArray(buckets);
+		setDouble(MIN, Double.POSITIVE_INFINITY);
+		setDouble(MAX, Double.NEGATIVE_INFINITY);
+	}
+
+	public void record(double value) {
+		if (value != value) { // NaN
+			return;
+		}
+		int bucket;
+		double scaled = value / mUnit;
+		if (scaled < 1) {
+			bucket = 0;
+		} else {
+			bucket = Math.min(mCounts.length() - 1, Math.getExponent(scaled) + 1);
+		}
+		AtomicLongArray stats = mStats;
+		mCounts.lazySet(bucket, mCounts.get(bucket) + 1);
+		setDouble(SUM, getDouble(SUM) + value);
+		if (value < getDouble(MIN)) {
+			setDouble(MIN, value);
+		}
+		if (value > getDouble(MAX)) {
+			setDouble(MAX, value);
+		}
+		// last, a reader that sees the count sees the bucket and the sum
+		stats.lazySet(TOTAL_COUNT, stats.get(TOTAL_COUNT) + 1);
+	}
+
+	private double getDouble(int index) {
+		return Double.longBitsToDouble(mStats.get(index));
+	}
+
+	private void setDouble(int index, double value) {
+		mStats.lazySet(index, Double.doubleToRawLongBits(value));
+	}
+
+	public int getBucketCount() {
+		return mCounts.length();
+	}
+
+	public long getCount(int bucket) {
+		return mCounts.get(bucket);
+	}
+
+	/**
+	 * @return exclusive upper bound of the bucket, infinity for the last one
+	 */
+	public double getUpperBound(int bucket) {
+		if (bucket == mCounts.length() - 1) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return mUnit * Math.pow(2, bucket);
+	}
+
+	public long getTotalCount() {
+		return mStats.get(TOTAL_COUNT);
+	}
+
+	public double getMean() {
+		long count = getTotalCount();
+		return count == 0 ? Double.NaN : getDouble(SUM) / count;
+	}
+
+	public double getMin() {
+		return getDouble(MIN);
+	}
+
+	public double getMax() {
+		return getDouble(MAX);
+	}
+
+	/**
+	 * @return upper bound of the bucket containing the given quantile
+	 */
+	public double getQuantile(double quantile) {
+		long count = getTotalCount();
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long rank = (long) Math.ceil(quantile * count);
+		long seen = 0;
+		double max = getMax();
+		for (int i = 0; i < mCounts.length(); i++) {
+			seen += mCounts.get(i);
+			if (seen >= rank) {
+				return Math.min(getUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Clears the counts, on the writer thread.
+	 */
+	public void reset() {
+		for (int i = 0; i < mCounts.length(); i++) {
+			mCounts.lazySet(i, 0);
+		}
+		mStats.lazySet(TOTAL_COUNT, 0);
+		setDouble(SUM, 0);
+		setDouble(MIN, Double.POSITIVE_INFINITY);
+		setDouble(MAX, Double.NEGATIVE_INFINITY);
+	}
+
+	public String toString() {
+		return "Histogram(n=" + getTotalCount() + ", mean=" + getMean() + ", p50=" + getQuantile(0.5)
+				+ ", p99=" + getQuantile(0.99) + ", max=" + getMax() + ")";
+	}
+}
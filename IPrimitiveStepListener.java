@@ -0,0 +1,17 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * Step listener receiving the step properties as primitives, no event object
+ * is allocated per step.
+ */
+public interface IPrimitiveStepListener {
+	/**
+	 * @param timestamp
+	 *            sensor timestamp of the step in nanoseconds
+	 * @param duration
+	 *            stride duration in seconds
+	 * @param strideLength
+	 *            stride length estimate
+	 */
+	public void onStep(long timestamp, double duration, double strideLength);
+}
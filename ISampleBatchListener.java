@@ -0,0 +1,20 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * Receives accelerometer samples in batches from an {@link ISensorSource}.
+ *
+ */
+public interface ISampleBatchListener {
+	/**
+	 * The arrays are owned by the source and reused, they are valid only for
+	 * the duration of the call.
+	 *
+	 * @param timestamps
+	 *            sensor timestamps in nanoseconds, in ascending order
+	 * @param xyz
+	 *            samples interleaved as x, y, z triples
+	 * @param count
+	 *            number of samples in the batch
+	 */
+	void onSamples(long[] timestamps, float[] xyz, int count);
+}
@@ -0,0 +1,17 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * Source of accelerometer samples delivered in batches.
+ *
+ */
+public interface ISensorSource {
+	/**
+	 * Starts delivering samples to the listener.
+	 */
+	void start(ISampleBatchListener listener);
+
+	/**
+	 * Delivers the buffered samples and stops.
+	 */
+	void stop();
+}
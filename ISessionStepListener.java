@@ -0,0 +1,16 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * Receives the steps detected by {@link MultiSessionStepEngine}.
+ */
+public interface ISessionStepListener {
+	/**
+	 * @param session
+	 *            session id returned by MultiSessionStepEngine.openSession()
+	 * @param timestamp
+	 *            sensor timestamp of the step in nanoseconds
+	 * @param duration
+	 *            stride duration in seconds
+	 */
+	public void onStep(int session, long timestamp, double duration);
+}
@@ -2,4 +2,5 @@ package cz.muni.fi.sandbox.service.stepdetector;
 
 public interface IStepDetector {
 	void addStepListener(IStepListener sl);
+	void removeStepListener(IStepListener sl);
 }
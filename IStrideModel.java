@@ -0,0 +1,15 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * Model for estimation of the stride length from the stride duration.
+ * Implementations are immutable and can be shared between detectors and
+ * threads.
+ */
+public interface IStrideModel {
+	/**
+	 * @param duration
+	 *            stride duration in seconds
+	 * @return stride length estimate in meters
+	 */
+	public double getStrideLength(double duration);
+}
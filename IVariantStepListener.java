@@ -0,0 +1,19 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * Receives the steps of the individual variants of an
+ * {@link EnsembleStepDetector}.
+ */
+public interface IVariantStepListener {
+	/**
+	 * @param variant
+	 *            index of the variant in the ensemble
+	 * @param timestamp
+	 *            sensor timestamp of the step in nanoseconds
+	 * @param duration
+	 *            stride duration in seconds
+	 * @param strideLength
+	 *            stride length estimate
+	 */
+	public void onStep(int variant, long timestamp, double duration, double strideLength);
+}
@@ -0,0 +1,34 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * LabelledTrace class, recorded trace with its ground truth step count and
+ * the class of the device that recorded it.
+ *
+ */
+public class LabelledTrace {
+
+	private final AccelerometerTrace mTrace;
+	private final int mStepCount;
+	private final String mDeviceClass;
+
+	public LabelledTrace(AccelerometerTrace trace, int stepCount, String deviceClass) {
+		if (stepCount <= 0) {
+			throw new IllegalArgumentException("stepCount must be positive");
+		}
+		mTrace = trace;
+		mStepCount = stepCount;
+		mDeviceClass = deviceClass;
+	}
+
+	public AccelerometerTrace getTrace() {
+		return mTrace;
+	}
+
+	public int getStepCount() {
+		return mStepCount;
+	}
+
+	public String getDeviceClass() {
+		return mDeviceClass;
+	}
+}
@@ -0,0 +1,346 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedTraceReader class, memory-maps a trace file written by
+ * {@link TraceFileWriter}. The chunks are mapped lazily and exposed as
+ * primitive buffer views, nothing is copied to the heap. Samples are addressed
+ * by their global index, {@link #findSample(long)} maps timestamps to indices.
+ *
+ * Not thread-safe, use one reader per thread.
+ *
+ */
+public class MappedTraceReader implements Closeable {
+
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+
+	private final float mSampleRate;
+	private final int mChunkSize;
+	private final long mSampleCount;
+	private final int mChunkCount;
+	private final String mDeviceMetadata;
+
+	private final long[] mChunkFirstTimestamp;
+	private final long[] mChunkLastTimestamp;
+	private final long[] mChunkOffset;
+	private final long[] mChunkFirstSample;
+	private final int[] mChunkSamples;
+
+	private final MappedByteBuffer[] mChunks;
+	private final LongBuffer[] mTimestampViews;
+	private final FloatBuffer[] mXViews, mYViews, mZViews;
+
+	/**
+	 * Reads and validates the header and the chunk index.
+	 *
+	 * @throws IOException
+	 *             when the file is not a trace file, is truncated or its
+	 *             header or index is inconsistent with the file size
+	 */
+	public MappedTraceReader(File file) throws IOException {
+		mFile = new RandomAccessFile(file, "r");
+		mChannel = mFile.getChannel();
+		try {
+			ByteBuffer header = ByteBuffer.allocate(TraceFile.FIXED_HEADER_SIZE).order(TraceFile.ORDER);
+			readFully(header, 0);
+			header.flip();
+			if (header.getInt() != TraceFile.MAGIC) {
+				throw new IOException("not an accelerometer trace file: " + file);
+			}
+			short version = header.getShort();
+			if (version != TraceFile.VERSION) {
+				throw new IOException("unsupported trace file version " + version);
+			}
+			header.getShort();
+			mSampleRate = header.getFloat();
+			mChunkSize = header.getInt();
+			mSampleCount = header.getLong();
+			mChunkCount = header.getInt();
+			long indexOffset = header.getLong();
+			int metadataLength = header.getInt();
+			long fileSize = mChannel.size();
+			if (mChunkSize < 1 || mChunkSize > fileSize / (8 + 3 * 4) || mSampleCount < 0 || mChunkCount < 0
+					|| metadataLength < 0 || metadataLength > fileSize - TraceFile.FIXED_HEADER_SIZE
+					|| indexOffset < TraceFile.FIXED_HEADER_SIZE + metadataLength
+					|| mChunkCount > (fileSize - indexOffset) / TraceFile.INDEX_ENTRY_SIZE) {
+				throw new IOException("corrupt trace file header: " + file);
+			}
+
+			ByteBuffer metadata = ByteBuffer.allocate(metadataLength);
+			readFully(metadata, TraceFile.FIXED_HEADER_SIZE);
+			mDeviceMetadata = new String(metadata.array(), TraceFile.UTF8);
+
+			ByteBuffer index = ByteBuffer.allocate(mChunkCount * TraceFile.INDEX_ENTRY_SIZE).order(TraceFile.ORDER);
+			readFully(index, indexOffset);
+			index.flip();
+			mChunkFirstTimestamp = new long[mChunkCount];
+			mChunkLastTimestamp = new long[mChunkCount];
+			mChunkOffset = new long[mChunkCount];
+			mChunkFirstSample = new long[mChunkCount];
+			mChunkSamples = new int[mChunkCount];
+			for (int i = 0; i < mChunkCount; i++) {
+				mChunkFirstTimestamp[i] = index.getLong();
+				mChunkLastTimestamp[i] = index.getLong();
+				mChunkOffset[i] = index.getLong();
+				mChunkFirstSample[i] = index.getLong();
+				mChunkSamples[i] = index.getInt();
+				index.getInt();
+				// chunks must be consecutive, within the file and before the index
+				long expectedFirst = i == 0 ? 0 : mChunkFirstSample[i - 1] + mChunkSamples[i - 1];
+				if (mChunkSamples[i] < 1 || mChunkSamples[i] > mChunkSize || mChunkFirstSample[i] != expectedFirst
+						|| mChunkOffset[i] < TraceFile.FIXED_HEADER_SIZE + metadataLength
+						|| mChunkOffset[i] > indexOffset - TraceFile.chunkBytes(mChunkSamples[i])) {
+					throw new IOException("corrupt trace file index entry " + i + ": " + file);
+				}
+			}
+			long indexedSamples = mChunkCount == 0 ? 0
+					: mChunkFirstSample[mChunkCount - 1] + mChunkSamples[mChunkCount - 1];
+			if (indexedSamples != mSampleCount) {
+				throw new IOException("trace file index covers " + indexedSamples + " of " + mSampleCount
+						+ " samples: " + file);
+			}
+		} catch (IOException e) {
+			mFile.close();
+			throw e;
+		}
+
+		mChunks = new MappedByteBuffer[mChunkCount];
+		mTimestampViews = new LongBuffer[mChunkCount];
+		mXViews = new FloatBuffer[mChunkCount];
+		mYViews = new FloatBuffer[mChunkCount];
+		mZViews = new FloatBuffer[mChunkCount];
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (mChannel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("truncated trace file");
+			}
+		}
+	}
+
+	public float getSampleRate() {
+		return mSampleRate;
+	}
+
+	public String getDeviceMetadata() {
+		return mDeviceMetadata;
+	}
+
+	public long getSampleCount() {
+		return mSampleCount;
+	}
+
+	public int getChunkCount() {
+		return mChunkCount;
+	}
+
+	public int getChunkSize() {
+		return mChunkSize;
+	}
+
+	public int getChunkSampleCount(int chunk) {
+		return mChunkSamples[chunk];
+	}
+
+	public long getChunkFirstSample(int chunk) {
+		return mChunkFirstSample[chunk];
+	}
+
+	public LongBuffer getTimestamps(int chunk) {
+		map(chunk);
+		return mTimestampViews[chunk].duplicate();
+	}
+
+	public FloatBuffer getX(int chunk) {
+		map(chunk);
+		return mXViews[chunk].duplicate();
+	}
+
+	public FloatBuffer getY(int chunk) {
+		map(chunk);
+		return mYViews[chunk].duplicate();
+	}
+
+	public FloatBuffer getZ(int chunk) {
+		map(chunk);
+		return mZViews[chunk].duplicate();
+	}
+
+	private void map(int chunk) {
+		if (mChunks[chunk] != null) {
+			return;
+		}
+		int n = mChunkSamples[chunk];
+		MappedByteBuffer buffer;
+		try {
+			buffer = mChannel.map(FileChannel.MapMode.READ_ONLY, mChunkOffset[chunk], TraceFile.chunkBytes(n));
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot map chunk " + chunk, e);
+		}
+		buffer.order(TraceFile.ORDER);
+		mChunks[chunk] = buffer;
+		mTimestampViews[chunk] = slice(buffer, 0, 8 * n).asLongBuffer();
+		mXViews[chunk] = slice(buffer, 8 * n, 4 * n).asFloatBuffer();
+		mYViews[chunk] = slice(buffer, 12 * n, 4 * n).asFloatBuffer();
+		mZViews[chunk] = slice(buffer, 16 * n, 4 * n).asFloatBuffer();
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		return duplicate.slice().order(TraceFile.ORDER);
+	}
+
+	/**
+	 * @return chunk containing the sample with the given global index
+	 */
+	public int chunkOf(long sample) {
+		if (sample < 0 || sample >= mSampleCount) {
+			throw new IndexOutOfBoundsException("sample " + sample);
+		}
+		int low = 0, high = mChunkCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (mChunkFirstSample[mid] <= sample) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return global index of the first sample with timestamp at or after the
+	 *         given one, sample count if there is none
+	 */
+	public long findSample(long timestamp) {
+		int low = 0, high = mChunkCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mChunkLastTimestamp[mid] < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		if (low == mChunkCount) {
+			return mSampleCount;
+		}
+		LongBuffer timestamps = getTimestamps(low);
+		int first = 0, last = mChunkSamples[low];
+		while (first < last) {
+			int mid = (first + last) >>> 1;
+			if (timestamps.get(mid) < timestamp) {
+				first = mid + 1;
+			} else {
+				last = mid;
+			}
+		}
+		return mChunkFirstSample[low] + first;
+	}
+
+	/**
+	 * Pushes the samples [from, to) into the detector, chunk by chunk through
+	 * {@link HeadlessStepDetector#pushBatch(long[], float[], int)}. The mapped
+	 * chunk is copied into one reused pair of batch arrays.
+	 *
+	 * @return number of steps detected
+	 * @throws IndexOutOfBoundsException
+	 *             unless 0 &lt;= from &lt;= to &lt;= sample count
+	 */
+	public int feed(HeadlessStepDetector detector, long from, long to) {
+		checkRange(from, to);
+		if (from == to) {
+			return 0;
+		}
+		long[] batchTimestamps = new long[mChunkSize];
+		float[] batchXyz = new float[3 * mChunkSize];
+		int steps = 0;
+		for (int chunk = chunkOf(from); chunk < mChunkCount && mChunkFirstSample[chunk] < to; chunk++) {
+			map(chunk);
+			FloatBuffer x = mXViews[chunk];
+			FloatBuffer y = mYViews[chunk];
+			FloatBuffer z = mZViews[chunk];
+			long first = mChunkFirstSample[chunk];
+			int start = (int) Math.max(0, from - first);
+			int count = (int) Math.min(mChunkSamples[chunk], to - first) - start;
+			copy(mTimestampViews[chunk], start, batchTimestamps, 0, count);
+			for (int i = 0, j = 0; i < count; i++) {
+				batchXyz[j++] = x.get(start + i);
+				batchXyz[j++] = y.get(start + i);
+				batchXyz[j++] = z.get(start + i);
+			}
+			steps += detector.pushBatch(batchTimestamps, batchXyz, count);
+		}
+		return steps;
+	}
+
+	/**
+	 * Copies the samples [from, to) into a heap trace, for the array based
+	 * APIs.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             unless 0 &lt;= from &lt;= to &lt;= sample count
+	 */
+	public AccelerometerTrace read(long from, long to) {
+		checkRange(from, to);
+		if (to - from > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("range of " + (to - from) + " samples doesn't fit in arrays");
+		}
+		int length = (int) (to - from);
+		long[] timestamps = new long[length];
+		float[] x = new float[length];
+		float[] y = new float[length];
+		float[] z = new float[length];
+		int position = 0;
+		for (int chunk = length == 0 ? mChunkCount : chunkOf(from); chunk < mChunkCount
+				&& mChunkFirstSample[chunk] < to; chunk++) {
+			map(chunk);
+			long first = mChunkFirstSample[chunk];
+			int start = (int) Math.max(0, from - first);
+			int count = (int) Math.min(mChunkSamples[chunk], to - first) - start;
+			copy(mTimestampViews[chunk], start, timestamps, position, count);
+			copy(mXViews[chunk], start, x, position, count);
+			copy(mYViews[chunk], start, y, position, count);
+			copy(mZViews[chunk], start, z, position, count);
+			position += count;
+		}
+		return new AccelerometerTrace(timestamps, x, y, z, length);
+	}
+
+	private void checkRange(long from, long to) {
+		if (from < 0 || from > to || to > mSampleCount) {
+			throw new IndexOutOfBoundsException("samples [" + from + ", " + to + ") of " + mSampleCount);
+		}
+	}
+
+	private static void copy(LongBuffer source, int start, long[] target, int offset, int count) {
+		LongBuffer duplicate = source.duplicate();
+		duplicate.position(start);
+		duplicate.get(target, offset, count);
+	}
+
+	private static void copy(FloatBuffer source, int start, float[] target, int offset, int count) {
+		FloatBuffer duplicate = source.duplicate();
+		duplicate.position(start);
+		duplicate.get(target, offset, count);
+	}
+
+	@Override
+	public void close() throws IOException {
+		mFile.close();
+	}
+}
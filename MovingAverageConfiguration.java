@@ -0,0 +1,68 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * MovingAverageConfiguration class, immutable parameter set of the moving
+ * average step detector.
+ *
+ */
+public class MovingAverageConfiguration {
+
+	/** the class constants of {@link MovingAverageStepDetectorCore} */
+	public static final MovingAverageConfiguration DEFAULT = new MovingAverageConfiguration(
+			MovingAverageStepDetectorCore.MA1_WINDOW, MovingAverageStepDetectorCore.MA2_WINDOW,
+			MovingAverageStepDetectorCore.LOW_POWER_CUTOFF_VALUE,
+			MovingAverageStepDetectorCore.HIGH_POWER_CUTOFF_VALUE);
+
+	private final double mWindowMa1;
+	private final double mWindowMa2;
+	private final double mLowPowerCutoff;
+	private final double mHighPowerCutoff;
+
+	/**
+	 * @param windowMa1
+	 *            short moving average window in seconds
+	 * @param windowMa2
+	 *            long moving average window in seconds
+	 */
+	public MovingAverageConfiguration(double windowMa1, double windowMa2, double lowPowerCutoff,
+			double highPowerCutoff) {
+		mWindowMa1 = windowMa1;
+		mWindowMa2 = windowMa2;
+		mLowPowerCutoff = lowPowerCutoff;
+		mHighPowerCutoff = highPowerCutoff;
+	}
+
+	public double getWindowMa1() {
+		return mWindowMa1;
+	}
+
+	public double getWindowMa2() {
+		return mWindowMa2;
+	}
+
+	public double getLowPowerCutoff() {
+		return mLowPowerCutoff;
+	}
+
+	public double getHighPowerCutoff() {
+		return mHighPowerCutoff;
+	}
+
+	/**
+	 * @return true when the short window is shorter than the long one and the
+	 *         power cutoffs are in order
+	 */
+	public boolean isValid() {
+		return mWindowMa1 > 0 && mWindowMa1 < mWindowMa2 && mLowPowerCutoff < mHighPowerCutoff;
+	}
+
+	public MovingAverageStepDetectorCore createCore() {
+		return new MovingAverageStepDetectorCore(mWindowMa1, mWindowMa2, mLowPowerCutoff, mHighPowerCutoff);
+	}
+
+	@Override
+	public String toString() {
+		return "MovingAverageConfiguration(ma1=" + mWindowMa1 + ", ma2=" + mWindowMa2 + ", low="
+				+ mLowPowerCutoff + ", high=" + mHighPowerCutoff + ")";
+	}
+}
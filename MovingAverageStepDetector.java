@@ -2,71 +2,60 @@ package cz.muni.fi.sandbox.service.stepdetector;
 
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.util.Log;
-import cz.muni.fi.sandbox.dsp.filters.CumulativeSignalPowerTD;
-import cz.muni.fi.sandbox.dsp.filters.MovingAverageTD;
-import cz.muni.fi.sandbox.dsp.filters.SignalPowerTD;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * MovingAverageStepDetector class, step detection filter based on two moving averages
- * with minimum and maximum signal power thresholds 
- * 
+ * with minimum and maximum signal power thresholds. Thin Android adapter over
+ * {@link MovingAverageStepDetectorCore}.
+ *
  */
 public class MovingAverageStepDetector extends StepDetector {
-	
+
 	@SuppressWarnings("unused")
 	private static final String TAG = "MovingAverageStepDetector";
-	private float[] maValues;
-	private MovingAverageTD[] ma;
-	private SignalPowerTD sp;
-	private CumulativeSignalPowerTD asp;
-	private boolean mMASwapState;
-	private boolean stepDetected;
-	private boolean signalPowerOutOfRange;
-	private long mLastStepTimestamp;
-	private double strideDuration;
-	
+	private final MovingAverageStepDetectorCore mCore;
+	// mCore, or the resampling front-end in front of it, detector thread only
+	private HeadlessStepDetector mInput;
+	// target rate of a resampling switch not yet applied, as raw double bits
+	private static final long NO_PENDING_RESAMPLING = -1; // a NaN pattern
+	private final AtomicLong mPendingResampling = new AtomicLong(NO_PENDING_RESAMPLING);
+
 	public double stepLength;
-	
-	private static final long SECOND_IN_NANOSECONDS = (long) Math.pow(10, 9);
-	public static final double MA1_WINDOW = 0.2;
-	public static final double MA2_WINDOW = 5 * MA1_WINDOW;
-	@SuppressWarnings("unused")
-	private static final long POWER_WINDOW = SECOND_IN_NANOSECONDS / 10;
-	
-	public static final float LOW_POWER_CUTOFF_VALUE = 500.0f;   //2000.0f // 200 for vertical 45 degrees with wall
-	public static final float HIGH_POWER_CUTOFF_VALUE = 500000.0f;  // 90000.0f  // 100000000
-	
-	
-	private static final double MAX_STRIDE_DURATION = 2.0; // in seconds
-	private static final double MIN_STRIDE_DURATION = 0.1;
-	
-	
-	private double mWindowMa1;
-	private double mWindowMa2;
-	private long mWindowPower;
-	private float mLowPowerCutoff, mHighPowerCutoff;
-	
+
+	public static final double MA1_WINDOW = MovingAverageStepDetectorCore.MA1_WINDOW;
+	public static final double MA2_WINDOW = MovingAverageStepDetectorCore.MA2_WINDOW;
+
+	public static final float LOW_POWER_CUTOFF_VALUE = MovingAverageStepDetectorCore.LOW_POWER_CUTOFF_VALUE;
+	public static final float HIGH_POWER_CUTOFF_VALUE = MovingAverageStepDetectorCore.HIGH_POWER_CUTOFF_VALUE;
+
 	public MovingAverageStepDetector() {
 		this(MA1_WINDOW, MA2_WINDOW, LOW_POWER_CUTOFF_VALUE, HIGH_POWER_CUTOFF_VALUE);
 	}
 
+	public MovingAverageStepDetector(MovingAverageConfiguration configuration) {
+		this(configuration.getWindowMa1(), configuration.getWindowMa2(), configuration.getLowPowerCutoff(),
+				configuration.getHighPowerCutoff());
+	}
+
 	public MovingAverageStepDetector(double windowMa1, double windowMa2, double lowPowerCutoff, double highPowerCutoff) {
-		
-		mWindowMa1 = windowMa1;
-		mWindowMa2 = windowMa2;
-		mLowPowerCutoff = (float)lowPowerCutoff;
-		mHighPowerCutoff = (float)highPowerCutoff;
-		
-		maValues = new float[4];
-		mMASwapState = true;
-		ma = new MovingAverageTD[] { new MovingAverageTD(mWindowMa1),
-				new MovingAverageTD(mWindowMa1),
-				new MovingAverageTD(mWindowMa2) };
-		sp = new SignalPowerTD(mWindowPower);
-		asp = new CumulativeSignalPowerTD();
-		stepDetected = false;
-		signalPowerOutOfRange = true;
+		this(windowMa1, windowMa2, lowPowerCutoff, highPowerCutoff,
+				new HeightStrideModel(MovingAverageStepDetectorCore.DEFAULT_HEIGHT));
+	}
+
+	public MovingAverageStepDetector(double windowMa1, double windowMa2, double lowPowerCutoff, double highPowerCutoff,
+			IStrideModel strideModel) {
+		mCore = new MovingAverageStepDetectorCore(windowMa1, windowMa2, lowPowerCutoff, highPowerCutoff, strideModel);
+		mInput = mCore;
+		mCore.addPrimitiveStepListener(new IPrimitiveStepListener() {
+			@Override
+			public void onStep(long timestamp, double duration, double strideLength) {
+				notifyOnStep(timestamp, duration, strideLength);
+			}
+		});
 	}
 
 	public class MovingAverageStepDetectorState {
@@ -77,121 +66,122 @@ public class MovingAverageStepDetector extends StepDetector {
 		MovingAverageStepDetectorState(float[] values, boolean[] states, double duration) {
 			this.values = values;
 			this.states = states;
+			this.duration = duration;
 		}
 	}
-	
 
-	public MovingAverageStepDetectorState getState() {
-		return new MovingAverageStepDetectorState(new float[] { maValues[0],
-				maValues[1], maValues[2], maValues[3] }, new boolean[] {
-				stepDetected, signalPowerOutOfRange }, strideDuration);
+	/**
+	 * @return the Android-free detector this adapter delegates to
+	 */
+	public MovingAverageStepDetectorCore getCore() {
+		return mCore;
 	}
 
-	public float getLowPowerThreshold() {
-		return mLowPowerCutoff;
-	}
-	
-	public float getHighPowerThreshold() {
-		return mHighPowerCutoff;
+	public MovingAverageStepDetectorState getState() {
+		return getState(new MovingAverageStepDetectorState(new float[4], new boolean[2], 0));
 	}
 
-	private double processAccelerometerValues(long timestamp, float[] values) {
+	/**
+	 * Fills the given state with a consistent snapshot, without blocking the
+	 * sensor thread and without allocation.
+	 *
+	 * @return the given state
+	 */
+	public MovingAverageStepDetectorState getState(MovingAverageStepDetectorState state) {
+		state.duration = mCore.readState(state.values, state.states);
+		return state;
+	}
 
-		float value = values[2];
+	/**
+	 * Puts a {@link ResamplingStepDetector} in front of the detector, so fast
+	 * sensors are processed at about the target rate. Can be called from any
+	 * thread, the switch is made on the detector thread before the next
+	 * sample, so it never races a sample in flight.
+	 *
+	 * @param targetRate
+	 *            in Hz, 0 turns the resampling off
+	 */
+	public void setResampling(double targetRate) {
+		mPendingResampling.set(Double.doubleToRawLongBits(targetRate > 0 ? targetRate : 0));
+	}
 
-		// compute moving averages
-		maValues[0] = value;
-		for (int i = 1; i < 3; i++) {
-			ma[i].push(timestamp, value);
-			maValues[i] = (float) ma[i].getAverage();
-			value = maValues[i];
+	private void applyResampling() {
+		double targetRate = Double.longBitsToDouble(mPendingResampling.getAndSet(NO_PENDING_RESAMPLING));
+		if (mInput instanceof ResamplingStepDetector) {
+			// also puts the core's power scale back to 1
+			((ResamplingStepDetector) mInput).detach();
 		}
+		mInput = targetRate > 0 ? new ResamplingStepDetector(mCore, targetRate) : mCore;
+	}
 
-		// detect moving average crossover
-		stepDetected = false;
-		boolean newSwapState = maValues[1] > maValues[2];
-		if (newSwapState != mMASwapState) {
-			mMASwapState = newSwapState;
-			if (mMASwapState) {
-				stepDetected = true;
-			}
-		}
+	public AxisMode getAxisMode() {
+		return mCore.getAxisMode();
+	}
 
-		// compute signal power
-		sp.push(timestamp, maValues[1] - maValues[2]);
-		asp.push(timestamp, maValues[1] - maValues[2]);
-		// maValues[3] = (float)sp.getPower();
-		maValues[3] = (float) asp.getValue();
-		signalPowerOutOfRange = (maValues[3] < mLowPowerCutoff) || (maValues[3] > mHighPowerCutoff);
-		// signalPowerOutOfRange = (maValues[3] < mLowPowerCutoff);
+	/**
+	 * @see MovingAverageStepDetectorCore#setAxisMode(AxisMode)
+	 */
+	public void setAxisMode(AxisMode mode) {
+		mCore.setAxisMode(mode);
+	}
 
-		if (stepDetected) {
-			asp.reset();
-		}
+	public float getLowPowerThreshold() {
+		return mCore.getLowPowerThreshold();
+	}
 
-		// step event
-		/*
-		if (stepDetected && signalPowerOutOfRange) {
-			if (maValues[3] < mLowPowerCutoff) {
-				//Log.d("Invalid Step", "Power too low!");
-			}
-			if (maValues[3] > mHighPowerCutoff) {
-				//Log.d("Invalid Step", "Power too high!");
-			}
-		}*/
-		
-		
-		if (stepDetected && !signalPowerOutOfRange) {
-			
-			strideDuration = getStrideDuration();
-			double strideLength;
-			
-			if (strideDuration != Double.NaN && strideDuration <= MAX_STRIDE_DURATION && strideDuration >= MIN_STRIDE_DURATION) {
-				notifyOnStep(new StepEvent(1.0, strideDuration));
-				strideLength = new StrideLengthEstimator(1.76).getStrideLengthFromDuration(strideDuration);
-				/* Round to 4 decimal places */
-				strideLength = strideLength * 10000;
-				strideLength = Math.round(strideLength);
-				strideLength =  strideLength / 10000;
-				Log.d("StrideLengthTest", Double.valueOf(strideLength).toString());
-				return strideLength;
-			}
-			else {
-				Log.d("Invalid Stride Duration", "Stride Duration NaN!");
-				return -10;
-			}
-		}
-		return -10;
+	public float getHighPowerThreshold() {
+		return mCore.getHighPowerThreshold();
+	}
+
+	/**
+	 * @see MovingAverageStepDetectorCore#checkpoint(DataOutput)
+	 */
+	public void checkpoint(DataOutput out) throws IOException {
+		mCore.checkpoint(out);
+	}
 
+	/**
+	 * Restores the core. A resampling front-end is not part of the checkpoint,
+	 * it measures the input rate anew.
+	 *
+	 * @see MovingAverageStepDetectorCore#restore(DataInput)
+	 */
+	public void restore(DataInput in) throws IOException {
+		mCore.restore(in);
 	}
 
 	/**
-	 * call has side-effects, must call only when step is detected.
-	 * 
-	 * @return stride duration if the duration is less than MAX_STRIDE_DURATION,
-	 *         NaN otherwise
+	 * The core collects the sample and step metrics, the adapter only adds the
+	 * listener latency.
 	 */
-	private double getStrideDuration() {
-		// compute stride duration
-		long currentStepTimestamp = System.nanoTime();
-		double strideDuration;
-		strideDuration = (double) (currentStepTimestamp - mLastStepTimestamp)
-				/ SECOND_IN_NANOSECONDS;
-		if (strideDuration > MAX_STRIDE_DURATION) {
-			strideDuration = Double.NaN;
+	@Override
+	public void setMetrics(StepDetectorMetrics metrics) {
+		super.setMetrics(metrics);
+		mCore.setWrappedMetrics(metrics);
+	}
+
+	@Override
+	public double push(long timestampNanos, float x, float y, float z) {
+		if (mPendingResampling.get() != NO_PENDING_RESAMPLING) {
+			applyResampling();
 		}
-		mLastStepTimestamp = currentStepTimestamp;
-		return strideDuration;
+		return mInput.push(timestampNanos, x, y, z);
+	}
+
+	@Override
+	public int pushBatch(long[] timestamps, float[] xyz, int count) {
+		if (mPendingResampling.get() != NO_PENDING_RESAMPLING) {
+			applyResampling();
+		}
+		return mInput.pushBatch(timestamps, xyz, count);
 	}
 
 	@Override
 	public void onSensorChanged(SensorEvent event) {
 		// Log.d(TAG, "sensor: " + sensor + ", x: " + values[0] + ", y: " +
 		// values[1] + ", z: " + values[2]);
-		synchronized (this) {
-			if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-				stepLength = processAccelerometerValues(event.timestamp, event.values);
-			}
+		if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
+			stepLength = push(event.timestamp, event.values[0], event.values[1], event.values[2]);
 		}
 	}
 }
@@ -0,0 +1,479 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MovingAverageStepDetectorCore class, Android-free implementation of the step
+ * detection filter based on two moving averages with minimum and maximum
+ * signal power thresholds. {@link MovingAverageStepDetector} adapts it to the
+ * Android sensor framework.
+ *
+ */
+public class MovingAverageStepDetectorCore extends HeadlessStepDetector {
+
+	private float[] maValues;
+	// stage chain source -> short MA -> long MA -> difference -> cumulative
+	// power -> crossover, fused in processValue; the stages are final classes
+	// so the calls stay monomorphic and get inlined
+	private final TimeWindowedMovingAverage mShortAverage;
+	private final TimeWindowedMovingAverage mLongAverage;
+	private final CumulativeSignalPower mCumulativePower;
+	private boolean mMASwapState;
+	private boolean stepDetected;
+	private boolean signalPowerOutOfRange;
+	private long mLastStepTimestamp;
+	private double strideDuration;
+	private IStrideModel mStrideModel;
+	private AccelerationKernel mKernel = new AccelerationKernel(AxisMode.Z_AXIS);
+	private float[] mBlock = new float[BLOCK_SIZE];
+
+	private static final int SNAPSHOT_SEQUENCE = 0;
+	private static final int SNAPSHOT_VALUES = 1;
+	private static final int SNAPSHOT_FLAGS = 5;
+	private static final int SNAPSHOT_DURATION = 6;
+	private final AtomicLongArray mSnapshot = new AtomicLongArray(7);
+
+	private static final long SECOND_IN_NANOSECONDS = (long) Math.pow(10, 9);
+	public static final double MA1_WINDOW = 0.2;
+	public static final double MA2_WINDOW = 5 * MA1_WINDOW;
+
+	public static final float LOW_POWER_CUTOFF_VALUE = 500.0f;   //2000.0f // 200 for vertical 45 degrees with wall
+	public static final float HIGH_POWER_CUTOFF_VALUE = 500000.0f;  // 90000.0f  // 100000000
+
+	public static final double DEFAULT_HEIGHT = 1.76; // in meters
+
+	static final double MAX_STRIDE_DURATION = 2.0; // in seconds
+	static final double MIN_STRIDE_DURATION = 0.1;
+
+	// samples projected per kernel call in the bulk methods
+	private static final int BLOCK_SIZE = 256;
+
+	private static final int CHECKPOINT_MAGIC = 0x4b434341; // "ACCK"
+	private static final short CHECKPOINT_VERSION = 1;
+
+	private double mWindowMa1;
+	private double mWindowMa2;
+	private float mLowPowerCutoff, mHighPowerCutoff;
+	// the power is a sum over samples, scaled back to the sensor rate when
+	// the input is decimated
+	private float mPowerScale = 1;
+
+	public MovingAverageStepDetectorCore() {
+		this(MA1_WINDOW, MA2_WINDOW, LOW_POWER_CUTOFF_VALUE, HIGH_POWER_CUTOFF_VALUE);
+	}
+
+	public MovingAverageStepDetectorCore(double windowMa1, double windowMa2, double lowPowerCutoff, double highPowerCutoff) {
+		this(windowMa1, windowMa2, lowPowerCutoff, highPowerCutoff, new HeightStrideModel(DEFAULT_HEIGHT));
+	}
+
+	public MovingAverageStepDetectorCore(double windowMa1, double windowMa2, double lowPowerCutoff, double highPowerCutoff,
+			IStrideModel strideModel) {
+
+		mStrideModel = strideModel;
+		mWindowMa1 = windowMa1;
+		mWindowMa2 = windowMa2;
+		mLowPowerCutoff = (float)lowPowerCutoff;
+		mHighPowerCutoff = (float)highPowerCutoff;
+
+		maValues = new float[4];
+		mMASwapState = true;
+		mShortAverage = new TimeWindowedMovingAverage(mWindowMa1);
+		mLongAverage = new TimeWindowedMovingAverage(mWindowMa2);
+		mCumulativePower = new CumulativeSignalPower();
+		stepDetected = false;
+		signalPowerOutOfRange = true;
+		publishState();
+	}
+
+	/**
+	 * Reads the state on the detector thread, other threads use
+	 * {@link #readState(float[], boolean[])}.
+	 * 
+	 * @param index
+	 *            0 for the raw value, 1 and 2 for the short and long moving
+	 *            averages, 3 for the cumulative signal power
+	 */
+	public float getValue(int index) {
+		return maValues[index];
+	}
+
+	public boolean isStepDetected() {
+		return stepDetected;
+	}
+
+	public boolean isSignalPowerOutOfRange() {
+		return signalPowerOutOfRange;
+	}
+
+	public double getStrideDuration() {
+		return strideDuration;
+	}
+
+	public IStrideModel getStrideModel() {
+		return mStrideModel;
+	}
+
+	public void setStrideModel(IStrideModel strideModel) {
+		mStrideModel = strideModel;
+	}
+
+	public AxisMode getAxisMode() {
+		return mKernel.getMode();
+	}
+
+	/**
+	 * Selects the signal the detector works on, the orientation invariant
+	 * modes keep the thresholds meaningful when the device is not held flat.
+	 * Must be called on the detector thread.
+	 */
+	public void setAxisMode(AxisMode mode) {
+		mKernel = new AccelerationKernel(mode);
+	}
+
+	public float getLowPowerThreshold() {
+		return mLowPowerCutoff;
+	}
+
+	public float getHighPowerThreshold() {
+		return mHighPowerCutoff;
+	}
+
+	/**
+	 * Scales the cumulative signal power by the ratio, so the power cutoffs
+	 * apply to the sensor rate the thresholds were tuned at.
+	 */
+	@Override
+	public void setRateRatio(double ratio) {
+		mPowerScale = (float) ratio;
+	}
+
+	@Override
+	public double push(long timestampNanos, float x, float y, float z) {
+		StepDetectorMetrics metrics = mMetrics;
+		if (metrics == null) {
+			return processValue(timestampNanos, mKernel.project(timestampNanos, x, y, z));
+		}
+		long start = metrics.now();
+		double strideLength = processValue(timestampNanos, mKernel.project(timestampNanos, x, y, z));
+		metrics.recordSample(start);
+		return strideLength;
+	}
+
+	/**
+	 * Projects the batch block by block and runs the filters over it, the
+	 * per-sample metrics are only collected on the single sample path.
+	 */
+	@Override
+	public int pushBatch(long[] timestamps, float[] xyz, int count) {
+		if (mMetrics != null) {
+			return super.pushBatch(timestamps, xyz, count);
+		}
+		int steps = 0;
+		float[] block = mBlock;
+		for (int start = 0; start < count; start += BLOCK_SIZE) {
+			int blockLength = Math.min(BLOCK_SIZE, count - start);
+			mKernel.project(timestamps, xyz, start, blockLength, block);
+			for (int j = 0; j < blockLength; j++) {
+				if (processValue(timestamps[start + j], block[j]) != NO_STEP) {
+					steps++;
+				}
+			}
+		}
+		return steps;
+	}
+
+	/**
+	 * Processes a block of z axis samples given as parallel arrays. Detected
+	 * steps are written into the caller supplied output buffers.
+	 *
+	 * @param stepIndices
+	 *            receives the input array index of the sample of each step
+	 * @param durations
+	 *            receives the stride duration of each step, in seconds
+	 * @param strideLengths
+	 *            receives the stride length estimate of each step
+	 * @return number of steps written. When the output buffers fill up, the
+	 *         processing stops right after the sample that produced the last
+	 *         recorded step, the caller can resume at
+	 *         stepIndices[count - 1] + 1.
+	 */
+	public int process(long[] timestamps, float[] z, int offset, int length,
+			int[] stepIndices, double[] durations, double[] strideLengths) {
+		int capacity = Math.min(stepIndices.length, Math.min(durations.length, strideLengths.length));
+		int count = 0;
+		int end = offset + length;
+		for (int i = offset; i < end && count < capacity; i++) {
+			double strideLength = processValue(timestamps[i], z[i]);
+			if (strideLength != NO_STEP) {
+				stepIndices[count] = i;
+				durations[count] = strideDuration;
+				strideLengths[count] = strideLength;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Same as {@link #process(long[], float[], int, int, int[], double[], double[])}
+	 * for samples interleaved as x, y, z triples, projected according to the
+	 * axis mode. Offset, length and the reported step indices count samples,
+	 * not array elements.
+	 */
+	public int processInterleaved(long[] timestamps, float[] xyz, int offset, int length,
+			int[] stepIndices, double[] durations, double[] strideLengths) {
+		int capacity = Math.min(stepIndices.length, Math.min(durations.length, strideLengths.length));
+		int count = 0;
+		int end = offset + length;
+		float[] block = mBlock;
+		// project a block in one pass, then run the filters over it
+		for (int start = offset; start < end && count < capacity; start += BLOCK_SIZE) {
+			int blockLength = Math.min(BLOCK_SIZE, end - start);
+			mKernel.mark();
+			mKernel.project(timestamps, xyz, start, blockLength, block);
+			for (int j = 0; j < blockLength; j++) {
+				int i = start + j;
+				double strideLength = processValue(timestamps[i], block[j]);
+				if (strideLength != NO_STEP) {
+					stepIndices[count] = i;
+					durations[count] = strideDuration;
+					strideLengths[count] = strideLength;
+					count++;
+					if (count == capacity && j < blockLength - 1) {
+						// the caller resumes after this sample, so the projection
+						// must not have seen the rest of the block
+						mKernel.rewind();
+						mKernel.project(timestamps, xyz, start, j + 1, block);
+						break;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	private double processValue(long timestampNanos, float value) {
+
+		// compute moving averages, the long one averages the short one
+		mShortAverage.push(timestampNanos, value);
+		float shortAverage = (float) mShortAverage.getAverage();
+		mLongAverage.push(timestampNanos, shortAverage);
+		float longAverage = (float) mLongAverage.getAverage();
+		maValues[0] = value;
+		maValues[1] = shortAverage;
+		maValues[2] = longAverage;
+
+		// detect moving average crossover
+		stepDetected = false;
+		boolean newSwapState = shortAverage > longAverage;
+		if (newSwapState != mMASwapState) {
+			mMASwapState = newSwapState;
+			if (mMASwapState) {
+				stepDetected = true;
+			}
+		}
+
+		// compute signal power since the last crossover
+		mCumulativePower.push(timestampNanos, shortAverage - longAverage);
+		float power = (float) mCumulativePower.getValue() * mPowerScale;
+		maValues[3] = power;
+		signalPowerOutOfRange = (power < mLowPowerCutoff) || (power > mHighPowerCutoff);
+
+		if (stepDetected) {
+			mCumulativePower.reset();
+		}
+
+		double strideLength = NO_STEP;
+		if (stepDetected && !signalPowerOutOfRange) {
+
+			strideDuration = computeStrideDuration(timestampNanos);
+
+			if (strideDuration != Double.NaN && strideDuration <= MAX_STRIDE_DURATION && strideDuration >= MIN_STRIDE_DURATION) {
+				strideLength = mStrideModel.getStrideLength(strideDuration);
+				/* Round to 4 decimal places */
+				strideLength = strideLength * 10000;
+				strideLength = Math.round(strideLength);
+				strideLength =  strideLength / 10000;
+			}
+		}
+
+		if (stepDetected) {
+			StepDetectorMetrics metrics = mMetrics;
+			if (metrics != null) {
+				recordCandidate(metrics, strideLength != NO_STEP);
+			}
+		}
+
+		publishState();
+		if (strideLength != NO_STEP) {
+			notifyOnStep(timestampNanos, strideDuration, strideLength);
+		}
+		return strideLength;
+	}
+
+	private void recordCandidate(StepDetectorMetrics metrics, boolean accepted) {
+		metrics.recordCandidatePower(maValues[3]);
+		if (accepted) {
+			metrics.recordAccepted(strideDuration);
+		} else if (maValues[3] < mLowPowerCutoff) {
+			metrics.recordRejectedPowerLow();
+		} else if (maValues[3] > mHighPowerCutoff) {
+			metrics.recordRejectedPowerHigh();
+		} else {
+			metrics.recordRejectedDuration();
+		}
+	}
+
+	/**
+	 * Seqlock write of the state snapshot, the sequence is odd while the
+	 * snapshot is being written. Ordered (release) stores are enough for the
+	 * single writer and cost no fence on the read side.
+	 */
+	private void publishState() {
+		AtomicLongArray snapshot = mSnapshot;
+		long sequence = snapshot.get(SNAPSHOT_SEQUENCE) + 1;
+		snapshot.lazySet(SNAPSHOT_SEQUENCE, sequence);
+		for (int i = 0; i < 4; i++) {
+			snapshot.lazySet(SNAPSHOT_VALUES + i, Float.floatToRawIntBits(maValues[i]));
+		}
+		snapshot.lazySet(SNAPSHOT_FLAGS, (stepDetected ? 1 : 0) | (signalPowerOutOfRange ? 2 : 0));
+		snapshot.lazySet(SNAPSHOT_DURATION, Double.doubleToRawLongBits(strideDuration));
+		snapshot.lazySet(SNAPSHOT_SEQUENCE, sequence + 1);
+	}
+
+	/**
+	 * Copies a consistent snapshot of the detector state into the caller's
+	 * buffers. Can be called from any thread, never blocks the detector and
+	 * allocates nothing; retries while the detector is writing.
+	 *
+	 * @param values
+	 *            receives the raw value, the short and long moving averages
+	 *            and the cumulative signal power, at least 4 elements
+	 * @param states
+	 *            receives step detected and signal power out of range, at
+	 *            least 2 elements
+	 * @return stride duration of the last step in seconds
+	 */
+	public double readState(float[] values, boolean[] states) {
+		AtomicLongArray snapshot = mSnapshot;
+		while (true) {
+			long sequence = snapshot.get(SNAPSHOT_SEQUENCE);
+			if ((sequence & 1) != 0) {
+				Thread.yield();
+				continue;
+			}
+			for (int i = 0; i < 4; i++) {
+				values[i] = Float.intBitsToFloat((int) snapshot.get(SNAPSHOT_VALUES + i));
+			}
+			long flags = snapshot.get(SNAPSHOT_FLAGS);
+			double duration = Double.longBitsToDouble(snapshot.get(SNAPSHOT_DURATION));
+			if (snapshot.get(SNAPSHOT_SEQUENCE) == sequence) {
+				states[0] = (flags & 1) != 0;
+				states[1] = (flags & 2) != 0;
+				return duration;
+			}
+		}
+	}
+
+	/**
+	 * Writes the complete filter state, so a detector restored from it
+	 * continues exactly where this one stopped, with no warm-up. Must be
+	 * called on the detector thread.
+	 *
+	 * <pre>
+	 * int magic, short version, double windowMa1, double windowMa2,
+	 * byte axisMode, kernel state, short and long moving average state,
+	 * cumulative power state, byte flags (swap, step, power out of range),
+	 * long lastStepTimestamp, double strideDuration, float[4] values
+	 * </pre>
+	 *
+	 * The thresholds and the stride model are configuration and are not
+	 * written.
+	 */
+	public void checkpoint(DataOutput out) throws IOException {
+		out.writeInt(CHECKPOINT_MAGIC);
+		out.writeShort(CHECKPOINT_VERSION);
+		out.writeDouble(mWindowMa1);
+		out.writeDouble(mWindowMa2);
+		out.writeByte(mKernel.getMode().ordinal());
+		mKernel.writeState(out);
+		mShortAverage.writeState(out);
+		mLongAverage.writeState(out);
+		mCumulativePower.writeState(out);
+		out.writeByte((mMASwapState ? 1 : 0) | (stepDetected ? 2 : 0) | (signalPowerOutOfRange ? 4 : 0));
+		out.writeLong(mLastStepTimestamp);
+		out.writeDouble(strideDuration);
+		for (int i = 0; i < 4; i++) {
+			out.writeFloat(maValues[i]);
+		}
+	}
+
+	/**
+	 * Replaces the state, including the axis mode, with a
+	 * {@link #checkpoint(DataOutput)} of a detector with the same windows.
+	 * Must be called on the detector thread. When it fails part way the
+	 * state is undefined, the detector should be discarded.
+	 *
+	 * @throws IOException
+	 *             when the checkpoint is corrupt, of an unsupported version or
+	 *             of different windows
+	 */
+	public void restore(DataInput in) throws IOException {
+		if (in.readInt() != CHECKPOINT_MAGIC) {
+			throw new IOException("not a moving average detector checkpoint");
+		}
+		short version = in.readShort();
+		if (version != CHECKPOINT_VERSION) {
+			throw new IOException("unsupported checkpoint version " + version);
+		}
+		if (in.readDouble() != mWindowMa1 || in.readDouble() != mWindowMa2) {
+			throw new IOException("checkpoint of a detector with different windows");
+		}
+		AxisMode[] modes = AxisMode.values();
+		int mode = in.readUnsignedByte();
+		if (mode >= modes.length) {
+			throw new IOException("unknown axis mode " + mode);
+		}
+		AccelerationKernel kernel = new AccelerationKernel(modes[mode]);
+		kernel.readState(in);
+		mKernel = kernel;
+		mShortAverage.readState(in);
+		mLongAverage.readState(in);
+		mCumulativePower.readState(in);
+		int flags = in.readUnsignedByte();
+		mMASwapState = (flags & 1) != 0;
+		stepDetected = (flags & 2) != 0;
+		signalPowerOutOfRange = (flags & 4) != 0;
+		mLastStepTimestamp = in.readLong();
+		strideDuration = in.readDouble();
+		for (int i = 0; i < 4; i++) {
+			maValues[i] = in.readFloat();
+		}
+		publishState();
+	}
+
+	/**
+	 * call has side-effects, must call only when step is detected. The duration
+	 * is measured in sensor time, so recorded traces can be replayed at any
+	 * speed.
+	 *
+	 * @param currentStepTimestamp
+	 *            sensor timestamp of the step in nanoseconds
+	 * @return stride duration if the duration is less than MAX_STRIDE_DURATION,
+	 *         NaN otherwise
+	 */
+	private double computeStrideDuration(long currentStepTimestamp) {
+		// compute stride duration
+		double strideDuration;
+		strideDuration = (double) (currentStepTimestamp - mLastStepTimestamp)
+				/ SECOND_IN_NANOSECONDS;
+		if (strideDuration > MAX_STRIDE_DURATION) {
+			strideDuration = Double.NaN;
+		}
+		mLastStepTimestamp = currentStepTimestamp;
+		return strideDuration;
+	}
+}
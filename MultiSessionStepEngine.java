@@ -0,0 +1,303 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * MultiSessionStepEngine class, runs the moving average crossover and signal
+ * power step detection of {@link MovingAverageStepDetectorCore} for many
+ * sessions at once, with the same filter classes. The per-session state is
+ * indexed by session slot and allocated once up front, the moving average
+ * samples of all the slots of a shard share one block of primitive arrays.
+ * The sessions are spread over shards that are processed in parallel.
+ *
+ * Session ids are assigned by {@link #openSession()}, session id modulo the
+ * shard count selects the shard. The listener is called from the shard
+ * threads, possibly concurrently for sessions of different shards.
+ *
+ * Opening and closing sessions and processing batches are serialized on the
+ * engine, a session can't be closed under a running batch.
+ *
+ */
+public class MultiSessionStepEngine {
+
+	private static final long SECOND_IN_NANOSECONDS = (long) Math.pow(10, 9);
+
+	private final Shard[] mShards;
+	private final ExecutorService mExecutor;
+	private final List<Callable<Void>> mTasks;
+	private final ISessionStepListener mListener;
+
+	private final double mWindowMa1;
+	private final double mWindowMa2;
+	private final float mLowPowerCutoff, mHighPowerCutoff;
+	private final int mCapacityMa1, mCapacityMa2;
+
+	/**
+	 * @param shards
+	 *            number of shards, also the number of worker threads
+	 * @param sessionsPerShard
+	 *            session slots per shard
+	 * @param maxSampleRate
+	 *            highest expected sample rate in Hz, sizes the moving average
+	 *            buffers
+	 */
+	public MultiSessionStepEngine(int shards, int sessionsPerShard, double maxSampleRate,
+			ISessionStepListener listener) {
+		this(shards, sessionsPerShard, maxSampleRate, MovingAverageStepDetectorCore.MA1_WINDOW,
+				MovingAverageStepDetectorCore.MA2_WINDOW,
+				MovingAverageStepDetectorCore.LOW_POWER_CUTOFF_VALUE,
+				MovingAverageStepDetectorCore.HIGH_POWER_CUTOFF_VALUE, listener);
+	}
+
+	public MultiSessionStepEngine(int shards, int sessionsPerShard, double maxSampleRate,
+			double windowMa1, double windowMa2, double lowPowerCutoff, double highPowerCutoff,
+			ISessionStepListener listener) {
+		if (shards < 1 || sessionsPerShard < 1) {
+			throw new IllegalArgumentException("shards and sessionsPerShard must be positive");
+		}
+		mWindowMa1 = windowMa1;
+		mWindowMa2 = windowMa2;
+		mLowPowerCutoff = (float) lowPowerCutoff;
+		mHighPowerCutoff = (float) highPowerCutoff;
+		mCapacityMa1 = TimeWindowedMovingAverage.capacity(windowMa1, maxSampleRate);
+		mCapacityMa2 = TimeWindowedMovingAverage.capacity(windowMa2, maxSampleRate);
+		mListener = listener;
+
+		mShards = new Shard[shards];
+		mTasks = new ArrayList<Callable<Void>>(shards);
+		for (int i = 0; i < shards; i++) {
+			mShards[i] = new Shard(i, sessionsPerShard);
+			mTasks.add(mShards[i]);
+		}
+		mExecutor = Executors.newFixedThreadPool(shards);
+	}
+
+	/**
+	 * Allocates a session slot and resets its state.
+	 *
+	 * @return session id, or -1 when all slots are taken
+	 */
+	public synchronized int openSession() {
+		// fill the shards evenly
+		Shard best = null;
+		for (Shard shard : mShards) {
+			if (shard.mFreeCount > 0 && (best == null || shard.mFreeCount > best.mFreeCount)) {
+				best = shard;
+			}
+		}
+		if (best == null) {
+			return -1;
+		}
+		int slot = best.mFreeSlots[--best.mFreeCount];
+		best.reset(slot);
+		best.mOpen[slot] = true;
+		return slot * mShards.length + best.mIndex;
+	}
+
+	/**
+	 * Releases the slot of the session, waits for a running batch.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when the session is not open
+	 */
+	public synchronized void closeSession(int session) {
+		checkOpen(session);
+		Shard shard = mShards[session % mShards.length];
+		int slot = session / mShards.length;
+		shard.mOpen[slot] = false;
+		shard.mFreeSlots[shard.mFreeCount++] = slot;
+	}
+
+	private void checkOpen(int session) {
+		Shard shard = session < 0 ? null : mShards[session % mShards.length];
+		int slot = session / mShards.length;
+		if (shard == null || slot >= shard.mOpen.length || !shard.mOpen[slot]) {
+			throw new IllegalArgumentException("session " + session + " is not open");
+		}
+	}
+
+	/**
+	 * Processes a batch of z axis samples of arbitrary sessions. Samples of one
+	 * session must be in timestamp order. The shards are processed in parallel,
+	 * the call returns when the whole batch is done. An interrupt doesn't cut
+	 * the batch short, which would leave the shards half applied; the call
+	 * still waits for all shards and then restores the interrupt status.
+	 *
+	 * @param sessions
+	 *            session id of each sample
+	 * @throws IllegalArgumentException
+	 *             when a sample is of a session that is not open, nothing of
+	 *             the batch is processed then
+	 */
+	public synchronized void process(int[] sessions, long[] timestamps, float[] z, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			checkOpen(sessions[i]);
+		}
+		int shardCount = mShards.length;
+		for (Shard shard : mShards) {
+			shard.beginBatch(sessions, timestamps, z, length);
+		}
+		for (int i = offset; i < end; i++) {
+			mShards[sessions[i] % shardCount].enqueue(i);
+		}
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(mTasks.size());
+		for (Callable<Void> task : mTasks) {
+			futures.add(mExecutor.submit(task));
+		}
+		boolean interrupted = false;
+		Throwable failure = null;
+		for (Future<Void> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+	public void shutdown() {
+		mExecutor.shutdown();
+	}
+
+	private class Shard implements Callable<Void> {
+
+		private final int mIndex;
+		private final int[] mFreeSlots;
+		private int mFreeCount;
+		private final boolean[] mOpen;
+
+		// per slot the filters of MovingAverageStepDetectorCore, the samples
+		// of all the moving averages of the shard are kept in one block
+		private final TimeWindowedMovingAverage[] mMa1;
+		private final TimeWindowedMovingAverage[] mMa2;
+		private final CumulativeSignalPower[] mPower;
+		private final boolean[] mSwapState;
+		private final long[] mLastStepTimestamp;
+
+		// current batch
+		private int[] mSessions;
+		private long[] mTimestamps;
+		private float[] mValues;
+		private int[] mQueue = new int[0];
+		private int mQueueSize;
+
+		Shard(int index, int slots) {
+			mIndex = index;
+			mFreeSlots = new int[slots];
+			for (int i = 0; i < slots; i++) {
+				mFreeSlots[i] = slots - 1 - i;
+			}
+			mFreeCount = slots;
+			mOpen = new boolean[slots];
+
+			int slotCapacity = mCapacityMa1 + mCapacityMa2;
+			long[] timestamps = new long[slots * slotCapacity];
+			double[] values = new double[slots * slotCapacity];
+			mMa1 = new TimeWindowedMovingAverage[slots];
+			mMa2 = new TimeWindowedMovingAverage[slots];
+			mPower = new CumulativeSignalPower[slots];
+			for (int slot = 0; slot < slots; slot++) {
+				int base = slot * slotCapacity;
+				mMa1[slot] = new TimeWindowedMovingAverage(mWindowMa1,
+						new DoubleRingBuffer(timestamps, values, base, mCapacityMa1));
+				mMa2[slot] = new TimeWindowedMovingAverage(mWindowMa2,
+						new DoubleRingBuffer(timestamps, values, base + mCapacityMa1, mCapacityMa2));
+				mPower[slot] = new CumulativeSignalPower();
+			}
+			mSwapState = new boolean[slots];
+			mLastStepTimestamp = new long[slots];
+		}
+
+		void reset(int slot) {
+			mMa1[slot].reset();
+			mMa2[slot].reset();
+			mPower[slot].reset();
+			mSwapState[slot] = true;
+			mLastStepTimestamp[slot] = 0;
+		}
+
+		void beginBatch(int[] sessions, long[] timestamps, float[] values, int length) {
+			mSessions = sessions;
+			mTimestamps = timestamps;
+			mValues = values;
+			mQueueSize = 0;
+			if (mQueue.length < length) {
+				mQueue = new int[length];
+			}
+		}
+
+		void enqueue(int index) {
+			mQueue[mQueueSize++] = index;
+		}
+
+		@Override
+		public Void call() {
+			int shardCount = mShards.length;
+			for (int q = 0; q < mQueueSize; q++) {
+				int i = mQueue[q];
+				int session = mSessions[i];
+				process(session, session / shardCount, mTimestamps[i], mValues[i]);
+			}
+			return null;
+		}
+
+		private void process(int session, int slot, long timestamp, float value) {
+
+			// moving averages, the long one averages the short one
+			TimeWindowedMovingAverage shortAverage = mMa1[slot];
+			shortAverage.push(timestamp, value);
+			float ma1 = (float) shortAverage.getAverage();
+			TimeWindowedMovingAverage longAverage = mMa2[slot];
+			longAverage.push(timestamp, ma1);
+			float ma2 = (float) longAverage.getAverage();
+
+			// detect moving average crossover
+			boolean stepDetected = false;
+			boolean newSwapState = ma1 > ma2;
+			if (newSwapState != mSwapState[slot]) {
+				mSwapState[slot] = newSwapState;
+				stepDetected = newSwapState;
+			}
+
+			// signal power since the last crossover
+			CumulativeSignalPower cumulativePower = mPower[slot];
+			cumulativePower.push(timestamp, ma1 - ma2);
+			float power = (float) cumulativePower.getValue();
+			boolean signalPowerOutOfRange = (power < mLowPowerCutoff) || (power > mHighPowerCutoff);
+			if (stepDetected) {
+				cumulativePower.reset();
+			}
+
+			if (stepDetected && !signalPowerOutOfRange) {
+				double strideDuration = (double) (timestamp - mLastStepTimestamp[slot])
+						/ SECOND_IN_NANOSECONDS;
+				mLastStepTimestamp[slot] = timestamp;
+				if (strideDuration <= MovingAverageStepDetectorCore.MAX_STRIDE_DURATION
+						&& strideDuration >= MovingAverageStepDetectorCore.MIN_STRIDE_DURATION) {
+					mListener.onStep(session, timestamp, strideDuration);
+				}
+			}
+		}
+	}
+}
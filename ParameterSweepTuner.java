@@ -0,0 +1,241 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParameterSweepTuner class, searches the moving average detector parameters
+ * over a corpus of labelled traces. Every candidate configuration is run over
+ * every trace in parallel on a fork-join pool, scored by the relative error
+ * of the detected step count against the ground truth, and the best
+ * configuration is picked for each device class.
+ *
+ */
+public class ParameterSweepTuner {
+
+	private final ForkJoinPool mPool;
+
+	/**
+	 * Tuner running on the common pool, nothing to shut down.
+	 */
+	public ParameterSweepTuner() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public ParameterSweepTuner(ForkJoinPool pool) {
+		mPool = pool;
+	}
+
+	/**
+	 * Best configuration of one device class.
+	 */
+	public static class TuningResult {
+		private final String mDeviceClass;
+		private final MovingAverageConfiguration mConfiguration;
+		private final double mScore;
+		private final int mTraceCount;
+
+		TuningResult(String deviceClass, MovingAverageConfiguration configuration, double score, int traceCount) {
+			mDeviceClass = deviceClass;
+			mConfiguration = configuration;
+			mScore = score;
+			mTraceCount = traceCount;
+		}
+
+		public String getDeviceClass() {
+			return mDeviceClass;
+		}
+
+		public MovingAverageConfiguration getConfiguration() {
+			return mConfiguration;
+		}
+
+		/**
+		 * @return mean relative step count error over the class traces, 0 is
+		 *         perfect
+		 */
+		public double getScore() {
+			return mScore;
+		}
+
+		public int getTraceCount() {
+			return mTraceCount;
+		}
+
+		@Override
+		public String toString() {
+			return mDeviceClass + ": " + mConfiguration + ", error " + mScore + " over " + mTraceCount + " traces";
+		}
+	}
+
+	/**
+	 * @return all valid combinations of the given values
+	 */
+	public static List<MovingAverageConfiguration> grid(double[] windowsMa1, double[] windowsMa2,
+			double[] lowPowerCutoffs, double[] highPowerCutoffs) {
+		List<MovingAverageConfiguration> candidates = new ArrayList<MovingAverageConfiguration>();
+		for (double windowMa1 : windowsMa1) {
+			for (double windowMa2 : windowsMa2) {
+				for (double low : lowPowerCutoffs) {
+					for (double high : highPowerCutoffs) {
+						MovingAverageConfiguration candidate = new MovingAverageConfiguration(windowMa1, windowMa2,
+								low, high);
+						if (candidate.isValid()) {
+							candidates.add(candidate);
+						}
+					}
+				}
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Random search candidates. The windows are drawn uniformly, the power
+	 * cutoffs log-uniformly as they span orders of magnitude.
+	 *
+	 * @param windowMa1Range
+	 *            min and max of the short window in seconds
+	 * @param windowMa2Range
+	 *            min and max of the long window in seconds
+	 * @param lowPowerRange
+	 *            min and max of the low power cutoff, positive
+	 * @param highPowerRange
+	 *            min and max of the high power cutoff, positive
+	 * @return count valid configurations, the same for the same seed
+	 */
+	public static List<MovingAverageConfiguration> random(int count, double[] windowMa1Range,
+			double[] windowMa2Range, double[] lowPowerRange, double[] highPowerRange, long seed) {
+		Random random = new Random(seed);
+		List<MovingAverageConfiguration> candidates = new ArrayList<MovingAverageConfiguration>(count);
+		int attempts = 0;
+		while (candidates.size() < count) {
+			if (++attempts > 100 * count) {
+				throw new IllegalArgumentException("the ranges give no valid configurations");
+			}
+			MovingAverageConfiguration candidate = new MovingAverageConfiguration(
+					uniform(random, windowMa1Range), uniform(random, windowMa2Range),
+					logUniform(random, lowPowerRange), logUniform(random, highPowerRange));
+			if (candidate.isValid()) {
+				candidates.add(candidate);
+			}
+		}
+		return candidates;
+	}
+
+	private static double uniform(Random random, double[] range) {
+		return range[0] + random.nextDouble() * (range[1] - range[0]);
+	}
+
+	private static double logUniform(Random random, double[] range) {
+		return Math.exp(uniform(random, new double[] { Math.log(range[0]), Math.log(range[1]) }));
+	}
+
+	/**
+	 * Runs the sweep, blocks until all candidates are scored.
+	 *
+	 * @return best configuration per device class, ties go to the earlier
+	 *         candidate
+	 */
+	public Map<String, TuningResult> tune(List<LabelledTrace> corpus, List<MovingAverageConfiguration> candidates) {
+		LabelledTrace[] traces = corpus.toArray(new LabelledTrace[corpus.size()]);
+		MovingAverageConfiguration[] configurations = candidates
+				.toArray(new MovingAverageConfiguration[candidates.size()]);
+		double[] errors = new double[configurations.length * traces.length];
+		mPool.invoke(new Evaluation(configurations, traces, errors, 0, errors.length));
+
+		Map<String, List<Integer>> classes = new TreeMap<String, List<Integer>>();
+		for (int t = 0; t < traces.length; t++) {
+			List<Integer> members = classes.get(traces[t].getDeviceClass());
+			if (members == null) {
+				members = new ArrayList<Integer>();
+				classes.put(traces[t].getDeviceClass(), members);
+			}
+			members.add(t);
+		}
+
+		Map<String, TuningResult> results = new TreeMap<String, TuningResult>();
+		for (Map.Entry<String, List<Integer>> entry : classes.entrySet()) {
+			List<Integer> members = entry.getValue();
+			int best = -1;
+			double bestScore = Double.POSITIVE_INFINITY;
+			for (int c = 0; c < configurations.length; c++) {
+				double score = 0;
+				for (int t : members) {
+					score += errors[c * traces.length + t];
+				}
+				score /= members.size();
+				if (score < bestScore) {
+					bestScore = score;
+					best = c;
+				}
+			}
+			if (best >= 0) {
+				results.put(entry.getKey(),
+						new TuningResult(entry.getKey(), configurations[best], bestScore, members.size()));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return number of steps the configuration detects in the trace
+	 */
+	public static int countSteps(MovingAverageConfiguration configuration, AccelerometerTrace trace) {
+		MovingAverageStepDetectorCore core = configuration.createCore();
+		long[] timestamps = trace.getTimestamps();
+		float[] x = trace.getX();
+		float[] y = trace.getY();
+		float[] z = trace.getZ();
+		int length = trace.getLength();
+		int steps = 0;
+		for (int i = 0; i < length; i++) {
+			if (core.push(timestamps[i], x[i], y[i], z[i]) != HeadlessStepDetector.NO_STEP) {
+				steps++;
+			}
+		}
+		return steps;
+	}
+
+	/**
+	 * Scores the (configuration, trace) pairs [from, to), splitting the range
+	 * until a single pair is left; one pair is a whole trace replay, so the
+	 * task overhead is negligible.
+	 */
+	private static class Evaluation extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final MovingAverageConfiguration[] mConfigurations;
+		private final LabelledTrace[] mTraces;
+		private final double[] mErrors;
+		private final int mFrom, mTo;
+
+		Evaluation(MovingAverageConfiguration[] configurations, LabelledTrace[] traces, double[] errors, int from,
+				int to) {
+			mConfigurations = configurations;
+			mTraces = traces;
+			mErrors = errors;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (mTo - mFrom == 1) {
+				LabelledTrace trace = mTraces[mFrom % mTraces.length];
+				int steps = countSteps(mConfigurations[mFrom / mTraces.length], trace.getTrace());
+				mErrors[mFrom] = Math.abs(steps - trace.getStepCount()) / (double) trace.getStepCount();
+			} else if (mTo > mFrom) {
+				int middle = (mFrom + mTo) >>> 1;
+				invokeAll(new Evaluation(mConfigurations, mTraces, mErrors, mFrom, middle),
+						new Evaluation(mConfigurations, mTraces, mErrors, middle, mTo));
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Arrays;
+
+/**
+ * PlotDecimator class, platform independent render model of a sweeping
+ * signal plot. Samples are coalesced into one bucket per pixel column that
+ * keeps the first, minimum, maximum and last value (M4 aggregation), which
+ * draws exactly like the full sample polyline at pixel resolution. Pushing a
+ * sample is O(1), producing the polylines is O(columns), so the drawing cost
+ * doesn't depend on the sample rate.
+ *
+ * The plot sweeps from left to right, a column covers a fixed time span and
+ * after the last column the sweep wraps to the first one, overwriting the
+ * oldest columns. Markers (steps, touches) are kept per column as well.
+ *
+ * Not thread-safe, synchronize the producer and the renderer.
+ *
+ */
+public class PlotDecimator {
+
+	private final int mChannels;
+	private final int mMarkers;
+	private final int mColumns;
+	private final long mNanosPerColumn;
+
+	// absolute column number of the data held in each column, -1 when empty
+	private final long[] mColumnIndex;
+	// per channel and column, NaN first value when the column has no sample
+	private final float[] mFirst, mMin, mMax, mLast;
+	// per marker and column
+	private final boolean[] mMarked;
+	private final float[] mMarkerValues;
+
+	private long mOrigin;
+	private long mCursor;
+
+	/**
+	 * @param channels
+	 *            number of plotted signals
+	 * @param markers
+	 *            number of marker kinds
+	 * @param columns
+	 *            plot width in pixels
+	 * @param nanosPerColumn
+	 *            time span of one column in nanoseconds
+	 */
+	public PlotDecimator(int channels, int markers, int columns, long nanosPerColumn) {
+		if (columns < 1 || nanosPerColumn < 1) {
+			throw new IllegalArgumentException("columns and nanosPerColumn must be positive");
+		}
+		mChannels = channels;
+		mMarkers = markers;
+		mColumns = columns;
+		mNanosPerColumn = nanosPerColumn;
+		mColumnIndex = new long[columns];
+		mFirst = new float[channels * columns];
+		mMin = new float[channels * columns];
+		mMax = new float[channels * columns];
+		mLast = new float[channels * columns];
+		mMarked = new boolean[markers * columns];
+		mMarkerValues = new float[markers * columns];
+		reset();
+	}
+
+	public int getChannels() {
+		return mChannels;
+	}
+
+	public int getColumns() {
+		return mColumns;
+	}
+
+	/**
+	 * @return size of the array {@link #fillLines} may need
+	 */
+	public int getLineBufferSize() {
+		return 8 * mColumns;
+	}
+
+	/**
+	 * @return column of the newest sample, -1 before the first one
+	 */
+	public int getCursor() {
+		return mCursor < 0 ? -1 : (int) (mCursor % mColumns);
+	}
+
+	/**
+	 * Adds a value of one channel.
+	 *
+	 * @param timestamp
+	 *            in nanoseconds, samples older than the cursor column are
+	 *            put into the cursor column
+	 */
+	public void push(long timestamp, int channel, float value) {
+		int i = channel * mColumns + column(timestamp);
+		if (Float.isNaN(mFirst[i])) {
+			mFirst[i] = value;
+			mMin[i] = value;
+			mMax[i] = value;
+		} else if (value < mMin[i]) {
+			mMin[i] = value;
+		} else if (value > mMax[i]) {
+			mMax[i] = value;
+		}
+		mLast[i] = value;
+	}
+
+	/**
+	 * Puts a marker into the column of the timestamp, a later mark of the
+	 * same kind in the column replaces the value.
+	 */
+	public void mark(long timestamp, int marker, float value) {
+		int i = marker * mColumns + column(timestamp);
+		mMarked[i] = true;
+		mMarkerValues[i] = value;
+	}
+
+	private int column(long timestamp) {
+		if (mCursor < 0) {
+			mOrigin = timestamp;
+			mCursor = 0;
+			clear(0, 0);
+			return 0;
+		}
+		long absolute = timestamp < mOrigin ? 0 : (timestamp - mOrigin) / mNanosPerColumn;
+		if (absolute > mCursor) {
+			// columns skipped over are emptied, at most one sweep of them
+			for (long a = Math.max(mCursor + 1, absolute - mColumns + 1); a <= absolute; a++) {
+				clear((int) (a % mColumns), a);
+			}
+			mCursor = absolute;
+		}
+		// late samples go into the cursor column, never into an older column
+		// that may already hold a newer sweep
+		return (int) (mCursor % mColumns);
+	}
+
+	private void clear(int column, long absolute) {
+		mColumnIndex[column] = absolute;
+		for (int channel = 0; channel < mChannels; channel++) {
+			mFirst[channel * mColumns + column] = Float.NaN;
+		}
+		for (int marker = 0; marker < mMarkers; marker++) {
+			mMarked[marker * mColumns + column] = false;
+		}
+	}
+
+	/**
+	 * Writes the channel as line segments for Canvas.drawLines: per column a
+	 * segment from the previous column's last value to this column's first
+	 * one, and a vertical segment from the minimum to the maximum. x is the
+	 * column, y is yOffset + value * scale.
+	 *
+	 * @param lines
+	 *            at least {@link #getLineBufferSize()} elements
+	 * @return number of floats written
+	 */
+	public int fillLines(int channel, float[] lines, float yOffset, float scale) {
+		int n = 0;
+		int base = channel * mColumns;
+		for (int c = 0; c < mColumns; c++) {
+			int i = base + c;
+			if (mColumnIndex[c] < 0 || Float.isNaN(mFirst[i])) {
+				continue;
+			}
+			float x = c;
+			// the segment from the column on the left when it holds the
+			// preceding time span of this sweep
+			if (c > 0 && mColumnIndex[c - 1] == mColumnIndex[c] - 1 && !Float.isNaN(mFirst[i - 1])) {
+				lines[n++] = x - 1;
+				lines[n++] = yOffset + mLast[i - 1] * scale;
+				lines[n++] = x;
+				lines[n++] = yOffset + mFirst[i] * scale;
+			}
+			lines[n++] = x;
+			lines[n++] = yOffset + mMin[i] * scale;
+			lines[n++] = x;
+			lines[n++] = yOffset + mMax[i] * scale;
+		}
+		return n;
+	}
+
+	/**
+	 * Writes the x, y positions of the markers of one kind.
+	 *
+	 * @param points
+	 *            at least 2 * columns elements
+	 * @return number of floats written
+	 */
+	public int fillMarkers(int marker, float[] points, float yOffset, float scale) {
+		int n = 0;
+		int base = marker * mColumns;
+		for (int c = 0; c < mColumns; c++) {
+			if (mMarked[base + c]) {
+				points[n++] = c;
+				points[n++] = yOffset + mMarkerValues[base + c] * scale;
+			}
+		}
+		return n;
+	}
+
+	public void reset() {
+		Arrays.fill(mColumnIndex, -1);
+		Arrays.fill(mFirst, Float.NaN);
+		Arrays.fill(mMarked, false);
+		mCursor = -1;
+	}
+}
@@ -0,0 +1,91 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * PrimitiveFFT class, in-place iterative radix-2 FFT of a fixed size over
+ * separate real and imaginary double arrays. Twiddle factors and the bit
+ * reversal permutation are computed once, a transform allocates nothing.
+ *
+ */
+public class PrimitiveFFT {
+
+	private final int mSize;
+	private final double[] mCos, mSin;
+	private final int[] mReversed;
+
+	/**
+	 * @param size
+	 *            transform size, a power of two
+	 */
+	public PrimitiveFFT(int size) {
+		if (size < 1 || (size & (size - 1)) != 0) {
+			throw new IllegalArgumentException("size must be a power of two");
+		}
+		mSize = size;
+		mCos = new double[size / 2];
+		mSin = new double[size / 2];
+		for (int i = 0; i < size / 2; i++) {
+			mCos[i] = Math.cos(2 * Math.PI * i / size);
+			mSin[i] = -Math.sin(2 * Math.PI * i / size);
+		}
+		mReversed = new int[size];
+		int bits = Integer.numberOfTrailingZeros(size);
+		for (int i = 0; i < size; i++) {
+			mReversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Forward transform, X(k) = sum x(n) e^(-2 pi j k n / N).
+	 */
+	public void forward(double[] re, double[] im) {
+		transform(re, im, false);
+	}
+
+	/**
+	 * Inverse transform including the 1/N scaling.
+	 */
+	public void inverse(double[] re, double[] im) {
+		transform(re, im, true);
+		double scale = 1.0 / mSize;
+		for (int i = 0; i < mSize; i++) {
+			re[i] *= scale;
+			im[i] *= scale;
+		}
+	}
+
+	private void transform(double[] re, double[] im, boolean inverse) {
+		int n = mSize;
+		for (int i = 0; i < n; i++) {
+			int j = mReversed[i];
+			if (j > i) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		for (int half = 1; half < n; half <<= 1) {
+			int stride = n / (2 * half);
+			for (int start = 0; start < n; start += 2 * half) {
+				for (int k = 0; k < half; k++) {
+					double wr = mCos[k * stride];
+					double wi = inverse ? -mSin[k * stride] : mSin[k * stride];
+					int a = start + k;
+					int b = a + half;
+					double tr = wr * re[b] - wi * im[b];
+					double ti = wr * im[b] + wi * re[b];
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Arrays;
+
+/**
+ * ResamplingStepDetector class, resampling front-end of another detector.
+ * Sensors delivering far above the gait bandwidth are brought down to about
+ * the target rate, so the detector behind does its work on a few samples per
+ * step period only.
+ *
+ * The input rate is measured with an exponential average of the sample
+ * intervals and selects the decimation factor D. The irregularly timed input
+ * is linearly interpolated onto a uniform grid at D times the target rate,
+ * low-pass filtered and decimated by D. The decimator is polyphase: the
+ * filter is evaluated only for the kept samples. Below twice the target rate
+ * the samples pass through unchanged.
+ *
+ * The steps of the wrapped detector are reported to the listeners of this
+ * one, the output timestamps are corrected for the filter delay. The wrapped
+ * detector is told the ratio of the input and output rates with
+ * {@link HeadlessStepDetector#setRateRatio(double)}, so sums over samples
+ * such as the cumulative signal power match the ones at the sensor rate and
+ * the step counts don't depend on the resampling.
+ *
+ */
+public class ResamplingStepDetector extends HeadlessStepDetector {
+
+	public static final double DEFAULT_TARGET_RATE = 50; // in Hz
+
+	private static final double SECOND_IN_NANOSECONDS = 1e9;
+	// filter taps per decimation phase
+	private static final int TAPS_PER_PHASE = 6;
+	// passband edge relative to the output Nyquist frequency
+	private static final double CUTOFF = 0.8;
+	private static final double RATE_SMOOTHING = 0.01;
+	// relative margin the rate ratio may stray out of [D, D + 1) before D
+	// changes, jittery timestamps must not keep restarting the filter
+	private static final double HYSTERESIS = 0.15;
+	// longer sensor pauses restart the grid instead of interpolating over them
+	private static final long MAX_GAP = (long) (SECOND_IN_NANOSECONDS / 2);
+
+	private final HeadlessStepDetector mTarget;
+	private final double mTargetRate;
+	private final IPrimitiveStepListener mTargetListener;
+
+	private double mInterval;
+	private long mLastTimestamp = Long.MIN_VALUE;
+	private float mLastX, mLastY, mLastZ;
+	private long mLastOutputTimestamp = Long.MIN_VALUE;
+
+	private int mFactor = 1;
+	private double mGridPeriod;
+	private double mNextGridTime;
+	private double mDelay;
+	private float[] mTaps;
+	// every sample is stored twice, at i and i + taps, so the filter window
+	// is always contiguous
+	private float[] mHistoryX, mHistoryY, mHistoryZ;
+	private int mPosition;
+	private int mPhase;
+
+	private double mStrideLength;
+
+	public ResamplingStepDetector(HeadlessStepDetector target) {
+		this(target, DEFAULT_TARGET_RATE);
+	}
+
+	/**
+	 * @param targetRate
+	 *            lowest rate in Hz the wrapped detector gets, the output rate
+	 *            stays below twice this
+	 */
+	public ResamplingStepDetector(HeadlessStepDetector target, double targetRate) {
+		if (targetRate <= 0) {
+			throw new IllegalArgumentException("targetRate must be positive");
+		}
+		mTarget = target;
+		mTargetRate = targetRate;
+		mTargetListener = new IPrimitiveStepListener() {
+			@Override
+			public void onStep(long timestamp, double duration, double strideLength) {
+				notifyOnStep(timestamp, duration, strideLength);
+			}
+		};
+		mTarget.addPrimitiveStepListener(mTargetListener);
+	}
+
+	/**
+	 * Stops reporting the steps of the wrapped detector and resets its rate
+	 * ratio. Must be called on the detector thread, after the last push.
+	 */
+	public void detach() {
+		mTarget.removePrimitiveStepListener(mTargetListener);
+		mTarget.setRateRatio(1);
+	}
+
+	public HeadlessStepDetector getTarget() {
+		return mTarget;
+	}
+
+	/**
+	 * @return measured input rate in Hz, 0 before the second sample
+	 */
+	public double getMeasuredRate() {
+		return mInterval == 0 ? 0 : SECOND_IN_NANOSECONDS / mInterval;
+	}
+
+	public int getDecimationFactor() {
+		return mFactor;
+	}
+
+	@Override
+	public double push(long timestampNanos, float x, float y, float z) {
+		mStrideLength = NO_STEP;
+		long dt = timestampNanos - mLastTimestamp;
+		if (mLastTimestamp == Long.MIN_VALUE || dt < 0 || dt > MAX_GAP) {
+			restart(timestampNanos, x, y, z);
+		} else if (dt > 0) {
+			mInterval = mInterval == 0 ? dt : mInterval + RATE_SMOOTHING * (dt - mInterval);
+			updateFactor(timestampNanos, x, y, z);
+		}
+
+		if (mFactor == 1) {
+			emit(timestampNanos, x, y, z);
+		} else {
+			// linear interpolation onto the grid
+			while (mNextGridTime <= timestampNanos) {
+				float f = dt > 0 && mLastTimestamp != timestampNanos
+						? (float) ((mNextGridTime - mLastTimestamp) / dt) : 1f;
+				decimate(mNextGridTime, mLastX + f * (x - mLastX), mLastY + f * (y - mLastY),
+						mLastZ + f * (z - mLastZ));
+				mNextGridTime += mGridPeriod;
+			}
+		}
+		mLastTimestamp = timestampNanos;
+		mLastX = x;
+		mLastY = y;
+		mLastZ = z;
+		return mStrideLength;
+	}
+
+	private void updateFactor(long timestamp, float x, float y, float z) {
+		double ratio = SECOND_IN_NANOSECONDS / mInterval / mTargetRate;
+		if (ratio >= mFactor * (1 - HYSTERESIS) && ratio < (mFactor + 1) * (1 + HYSTERESIS)) {
+			return;
+		}
+		mFactor = Math.max(1, (int) ratio);
+		restart(timestamp, x, y, z);
+	}
+
+	/**
+	 * Starts a new grid at the sample, with the filter history filled with it
+	 * so the filter has no start-up transient.
+	 */
+	private void restart(long timestamp, float x, float y, float z) {
+		mLastTimestamp = timestamp;
+		mLastX = x;
+		mLastY = y;
+		mLastZ = z;
+		if (mFactor == 1) {
+			mTaps = null;
+			return;
+		}
+		int length = TAPS_PER_PHASE * mFactor + 1;
+		if (mTaps == null || mTaps.length != length) {
+			mTaps = design(length, CUTOFF / (2 * mFactor));
+			mHistoryX = new float[2 * length];
+			mHistoryY = new float[2 * length];
+			mHistoryZ = new float[2 * length];
+		}
+		Arrays.fill(mHistoryX, x);
+		Arrays.fill(mHistoryY, y);
+		Arrays.fill(mHistoryZ, z);
+		mPosition = 0;
+		mPhase = 0;
+		mGridPeriod = SECOND_IN_NANOSECONDS / (mFactor * mTargetRate);
+		mDelay = (length - 1) / 2 * mGridPeriod;
+		mNextGridTime = timestamp;
+	}
+
+	/**
+	 * Windowed sinc low-pass with unit gain at DC.
+	 *
+	 * @param cutoff
+	 *            relative to the grid rate
+	 */
+	private static float[] design(int length, double cutoff) {
+		double[] h = new double[length];
+		double sum = 0;
+		int middle = (length - 1) / 2;
+		for (int i = 0; i < length; i++) {
+			int n = i - middle;
+			double sinc = n == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * n) / (Math.PI * n);
+			double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (length - 1));
+			h[i] = sinc * window;
+			sum += h[i];
+		}
+		float[] taps = new float[length];
+		for (int i = 0; i < length; i++) {
+			taps[i] = (float) (h[i] / sum);
+		}
+		return taps;
+	}
+
+	private void decimate(double time, float x, float y, float z) {
+		float[] taps = mTaps;
+		int length = taps.length;
+		int position = mPosition;
+		mHistoryX[position] = x;
+		mHistoryX[position + length] = x;
+		mHistoryY[position] = y;
+		mHistoryY[position + length] = y;
+		mHistoryZ[position] = z;
+		mHistoryZ[position + length] = z;
+		position = position + 1 == length ? 0 : position + 1;
+		mPosition = position;
+		if (++mPhase < mFactor) {
+			return;
+		}
+		mPhase = 0;
+		float sumX = 0, sumY = 0, sumZ = 0;
+		for (int i = 0; i < length; i++) {
+			float tap = taps[i];
+			sumX += tap * mHistoryX[position + i];
+			sumY += tap * mHistoryY[position + i];
+			sumZ += tap * mHistoryZ[position + i];
+		}
+		emit((long) (time - mDelay), sumX, sumY, sumZ);
+	}
+
+	private void emit(long timestamp, float x, float y, float z) {
+		// a restart can move the delay, keep the output time monotonic
+		if (timestamp <= mLastOutputTimestamp) {
+			timestamp = mLastOutputTimestamp + 1;
+		}
+		mLastOutputTimestamp = timestamp;
+		mTarget.setRateRatio(mFactor == 1 ? 1 : getMeasuredRate() / mTargetRate);
+		double strideLength = mTarget.push(timestamp, x, y, z);
+		if (strideLength != NO_STEP) {
+			mStrideLength = strideLength;
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SessionRecorder class, records raw samples, ground truth labels and
+ * detected steps of a session into an append-only file for building
+ * labelled corpora.
+ *
+ * The record methods never block and never touch the file: they put the
+ * record into a bounded lock-free multi-producer ring buffer of primitives
+ * and return. A background writer thread drains the buffer every
+ * {@link #COMMIT_INTERVAL_NANOS} and writes everything that accumulated with
+ * one write call (group commit). When the writer falls behind and the buffer
+ * is full, records are dropped and counted, see {@link #getDroppedCount()}.
+ *
+ * Records of different threads are written in the order they were queued,
+ * which is not necessarily their timestamp order. See
+ * {@link SessionRecording} for the file layout and the reader.
+ *
+ */
+public class SessionRecorder implements Closeable, IPrimitiveStepListener, ISampleBatchListener {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final long COMMIT_INTERVAL_NANOS = 50000000; // 50 ms
+	// flush to the storage device every this many commits
+	private static final int COMMITS_PER_FORCE = 20;
+	private static final int WRITE_BUFFER_RECORDS = 1024;
+
+	private final FileOutputStream mStream;
+	private final FileChannel mChannel;
+
+	// bounded ring buffer, a slot is free for position p when its sequence is
+	// p and filled when it is p + 1
+	private final int mMask;
+	private final AtomicLongArray mSequences;
+	private final int[] mTypes;
+	private final int[] mLabels;
+	private final long[] mTimestamps;
+	private final long[] mFirst, mSecond;
+	private final AtomicLong mTail = new AtomicLong();
+	private long mHead; // writer thread only
+
+	private final AtomicLong mDropped = new AtomicLong();
+	private volatile long mWritten;
+	private volatile IOException mError;
+
+	private final Thread mWriter;
+	private volatile boolean mRunning = true;
+
+	public SessionRecorder(File file, String metadata) throws IOException {
+		this(file, metadata, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates the file, writes the header and starts the writer thread.
+	 *
+	 * @param metadata
+	 *            free-form description of the device and the session
+	 * @param capacity
+	 *            records that can wait for the writer, rounded up to a power
+	 *            of two
+	 */
+	public SessionRecorder(File file, String metadata, int capacity) throws IOException {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		mMask = size - 1;
+		mSequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			mSequences.set(i, i);
+		}
+		mTypes = new int[size];
+		mLabels = new int[size];
+		mTimestamps = new long[size];
+		mFirst = new long[size];
+		mSecond = new long[size];
+
+		mStream = new FileOutputStream(file);
+		mChannel = mStream.getChannel();
+		try {
+			ByteBuffer header = SessionRecording.header(metadata == null ? "" : metadata);
+			while (header.hasRemaining()) {
+				mChannel.write(header);
+			}
+		} catch (IOException e) {
+			mStream.close();
+			throw e;
+		}
+
+		mWriter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "session-recorder");
+		mWriter.setDaemon(true);
+		mWriter.start();
+	}
+
+	/**
+	 * @return false when the record was dropped
+	 */
+	public boolean recordSample(long timestamp, float x, float y, float z) {
+		return offer(SessionRecording.TYPE_SAMPLE, 0, timestamp,
+				(Float.floatToRawIntBits(x) & 0xffffffffL) | ((long) Float.floatToRawIntBits(y) << 32),
+				Float.floatToRawIntBits(z) & 0xffffffffL);
+	}
+
+	/**
+	 * Records a ground truth label, e.g. a tap marking a step.
+	 *
+	 * @param timestamp
+	 *            in the sensor time base
+	 */
+	public boolean recordLabel(long timestamp, int label) {
+		return offer(SessionRecording.TYPE_LABEL, label, timestamp, 0, 0);
+	}
+
+	public boolean recordStep(long timestamp, double duration, double strideLength) {
+		return offer(SessionRecording.TYPE_STEP, 0, timestamp, Double.doubleToRawLongBits(duration),
+				Double.doubleToRawLongBits(strideLength));
+	}
+
+	/**
+	 * Records the steps of a detector it is registered with.
+	 */
+	@Override
+	public void onStep(long timestamp, double duration, double strideLength) {
+		recordStep(timestamp, duration, strideLength);
+	}
+
+	/**
+	 * Records the samples of an {@link ISensorSource}.
+	 */
+	@Override
+	public void onSamples(long[] timestamps, float[] xyz, int count) {
+		for (int i = 0; i < count; i++) {
+			recordSample(timestamps[i], xyz[3 * i], xyz[3 * i + 1], xyz[3 * i + 2]);
+		}
+	}
+
+	private boolean offer(int type, int label, long timestamp, long first, long second) {
+		if (!mRunning) {
+			mDropped.incrementAndGet();
+			return false;
+		}
+		long position = mTail.get();
+		while (true) {
+			int slot = (int) (position & mMask);
+			long difference = mSequences.get(slot) - position;
+			if (difference == 0) {
+				if (mTail.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = mTail.get();
+			} else if (difference < 0) {
+				// full, the writer hasn't freed the slot of the previous lap
+				mDropped.incrementAndGet();
+				return false;
+			} else {
+				position = mTail.get();
+			}
+		}
+		int slot = (int) (position & mMask);
+		mTypes[slot] = type;
+		mLabels[slot] = label;
+		mTimestamps[slot] = timestamp;
+		mFirst[slot] = first;
+		mSecond[slot] = second;
+		mSequences.lazySet(slot, position + 1);
+		return true;
+	}
+
+	/**
+	 * Writer thread loop, sleeps between the commits so the producers never
+	 * have to wake it up.
+	 */
+	private void write() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_RECORDS * SessionRecording.RECORD_SIZE)
+				.order(SessionRecording.ORDER);
+		int commits = 0;
+		try {
+			while (true) {
+				boolean running = mRunning;
+				drain(buffer);
+				if (!running) {
+					break;
+				}
+				if (++commits % COMMITS_PER_FORCE == 0) {
+					mChannel.force(false);
+				}
+				LockSupport.parkNanos(COMMIT_INTERVAL_NANOS);
+			}
+			mChannel.force(false);
+		} catch (IOException e) {
+			mError = e;
+			mRunning = false;
+		} finally {
+			// only the writer closes the file, so nothing closes it under a
+			// write in progress
+			try {
+				mStream.close();
+			} catch (IOException e) {
+				if (mError == null) {
+					mError = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes all queued records, in as few write calls as the buffer allows.
+	 */
+	private void drain(ByteBuffer buffer) throws IOException {
+		long written = mWritten;
+		while (true) {
+			int slot = (int) (mHead & mMask);
+			if (mSequences.get(slot) != mHead + 1) {
+				break;
+			}
+			buffer.putInt(mTypes[slot]);
+			buffer.putInt(mLabels[slot]);
+			buffer.putLong(mTimestamps[slot]);
+			buffer.putLong(mFirst[slot]);
+			buffer.putLong(mSecond[slot]);
+			mSequences.lazySet(slot, mHead + mMask + 1);
+			mHead++;
+			written++;
+			if (!buffer.hasRemaining()) {
+				flush(buffer);
+			}
+		}
+		flush(buffer);
+		mWritten = written;
+	}
+
+	private void flush(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			mChannel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @return records dropped because the buffer was full or the recorder
+	 *         closed
+	 */
+	public long getDroppedCount() {
+		return mDropped.get();
+	}
+
+	/**
+	 * @return records written to the file so far
+	 */
+	public long getWrittenCount() {
+		return mWritten;
+	}
+
+	/**
+	 * Stops accepting records and returns at once, the writer thread writes
+	 * the queued records, flushes them to the storage device and closes the
+	 * file. For threads that must not block on I/O, such as the UI thread.
+	 */
+	public void closeAsync() {
+		mRunning = false;
+		LockSupport.unpark(mWriter);
+	}
+
+	/**
+	 * @return the write error, null while none occurred
+	 */
+	public IOException getError() {
+		return mError;
+	}
+
+	/**
+	 * Writes the queued records, closes the file and waits for it. Stop the
+	 * producers first, a record offered while the recorder closes may be
+	 * lost.
+	 *
+	 * @throws InterruptedIOException
+	 *             when interrupted while waiting, the writer still finishes
+	 *             and closes the file
+	 * @throws IOException
+	 *             when the writer thread failed to write
+	 */
+	@Override
+	public void close() throws IOException {
+		closeAsync();
+		try {
+			mWriter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while the recording is written");
+		}
+		if (mError != null) {
+			throw mError;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * SessionRecording class, a session file written by {@link SessionRecorder}
+ * read back into memory. All values are little-endian.
+ *
+ * <pre>
+ * header:  int magic, short version, short reserved, int metadataLength,
+ *          byte[metadataLength] UTF-8 metadata, padding to 8 bytes
+ * record:  int type, int label, long timestamp, long first, long second
+ *          sample: first = float x | float y &lt;&lt; 32, second = float z
+ *          label:  label set, first and second unused
+ *          step:   first = double duration, second = double strideLength
+ * </pre>
+ *
+ * A record cut short by a crash at the end of the file is ignored.
+ *
+ */
+public class SessionRecording {
+
+	static final int MAGIC = 0x43524341; // "ACRC"
+	static final short VERSION = 1;
+	static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	static final int RECORD_SIZE = 4 + 4 + 8 + 8 + 8;
+
+	static final int TYPE_SAMPLE = 1;
+	static final int TYPE_LABEL = 2;
+	static final int TYPE_STEP = 3;
+
+	private final String mMetadata;
+	private final AccelerometerTrace mTrace;
+	private final long[] mLabelTimestamps;
+	private final int[] mLabels;
+	private final long[] mStepTimestamps;
+	private final double[] mStrideLengths;
+
+	private SessionRecording(String metadata, AccelerometerTrace trace, long[] labelTimestamps, int[] labels,
+			long[] stepTimestamps, double[] strideLengths) {
+		mMetadata = metadata;
+		mTrace = trace;
+		mLabelTimestamps = labelTimestamps;
+		mLabels = labels;
+		mStepTimestamps = stepTimestamps;
+		mStrideLengths = strideLengths;
+	}
+
+	static ByteBuffer header(String metadata) {
+		byte[] bytes = metadata.getBytes(TraceFile.UTF8);
+		ByteBuffer header = ByteBuffer.allocate(TraceFile.align(4 + 2 + 2 + 4 + bytes.length)).order(ORDER);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short) 0);
+		header.putInt(bytes.length);
+		header.put(bytes);
+		header.clear();
+		return header;
+	}
+
+	public static SessionRecording read(File file) throws IOException {
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ORDER);
+			return read(buffer);
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static SessionRecording read(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+			throw new IOException("not a session recording");
+		}
+		short version = buffer.getShort();
+		if (version != VERSION) {
+			throw new IOException("unsupported session recording version " + version);
+		}
+		buffer.getShort();
+		int metadataLength = buffer.getInt();
+		if (metadataLength < 0 || metadataLength > buffer.remaining()) {
+			throw new IOException("corrupt session recording header");
+		}
+		byte[] metadata = new byte[metadataLength];
+		buffer.get(metadata);
+		buffer.position(Math.min(buffer.limit(), TraceFile.align(buffer.position())));
+
+		int records = buffer.remaining() / RECORD_SIZE;
+		long[] timestamps = new long[records];
+		float[] x = new float[records];
+		float[] y = new float[records];
+		float[] z = new float[records];
+		long[] labelTimestamps = new long[records];
+		int[] labels = new int[records];
+		long[] stepTimestamps = new long[records];
+		double[] strideLengths = new double[records];
+		int samples = 0, labelCount = 0, steps = 0;
+		for (int i = 0; i < records; i++) {
+			int type = buffer.getInt();
+			int label = buffer.getInt();
+			long timestamp = buffer.getLong();
+			long first = buffer.getLong();
+			long second = buffer.getLong();
+			switch (type) {
+			case TYPE_SAMPLE:
+				timestamps[samples] = timestamp;
+				x[samples] = Float.intBitsToFloat((int) first);
+				y[samples] = Float.intBitsToFloat((int) (first >>> 32));
+				z[samples] = Float.intBitsToFloat((int) second);
+				samples++;
+				break;
+			case TYPE_LABEL:
+				labelTimestamps[labelCount] = timestamp;
+				labels[labelCount] = label;
+				labelCount++;
+				break;
+			case TYPE_STEP:
+				stepTimestamps[steps] = timestamp;
+				strideLengths[steps] = Double.longBitsToDouble(second);
+				steps++;
+				break;
+			default:
+				throw new IOException("unknown record type " + type);
+			}
+		}
+		AccelerometerTrace trace = new AccelerometerTrace(Arrays.copyOf(timestamps, samples),
+				Arrays.copyOf(x, samples), Arrays.copyOf(y, samples), Arrays.copyOf(z, samples), samples);
+		return new SessionRecording(new String(metadata, TraceFile.UTF8), trace,
+				Arrays.copyOf(labelTimestamps, labelCount), Arrays.copyOf(labels, labelCount),
+				Arrays.copyOf(stepTimestamps, steps), Arrays.copyOf(strideLengths, steps));
+	}
+
+	public String getMetadata() {
+		return mMetadata;
+	}
+
+	/**
+	 * @return the raw samples
+	 */
+	public AccelerometerTrace getTrace() {
+		return mTrace;
+	}
+
+	public long[] getLabelTimestamps() {
+		return mLabelTimestamps;
+	}
+
+	public int[] getLabels() {
+		return mLabels;
+	}
+
+	/**
+	 * @return timestamps of the steps the detector reported during recording
+	 */
+	public long[] getStepTimestamps() {
+		return mStepTimestamps;
+	}
+
+	public double[] getStrideLengths() {
+		return mStrideLengths;
+	}
+
+	/**
+	 * Uses the number of labels as the ground truth step count, for the
+	 * sessions where every step was marked.
+	 */
+	public LabelledTrace toLabelledTrace(String deviceClass) {
+		return new LabelledTrace(mTrace, mLabels.length, deviceClass);
+	}
+}
@@ -0,0 +1,208 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Arrays;
+
+/**
+ * SlidingDFTCadenceEstimator class, tracks the dominant gait frequency with a
+ * bank of sliding DFT bins over a fixed window. Each sample updates every bin
+ * in O(1), so a sample costs O(bins) and the dominant frequency is available
+ * after every sample.
+ *
+ * The bins can sit at arbitrary frequencies: for a bin at angular frequency w
+ * and window size N the recurrence is
+ * S(n) = e^(jw) * (x(n) + r * S(n-1) - r^N * e^(jwN) * x(n-N)),
+ * where r slightly below one keeps rounding errors from accumulating. The
+ * input passes a DC blocker first, so gravity doesn't leak into the lowest
+ * bins.
+ *
+ * Expects uniformly sampled input.
+ *
+ */
+public class SlidingDFTCadenceEstimator {
+
+	public static final double MIN_GAIT_FREQUENCY = 0.5; // in Hz
+	public static final double MAX_GAIT_FREQUENCY = 3.0;
+
+	private static final double DAMPING = 0.99999;
+	private static final double DC_BLOCKER_POLE = 0.995;
+
+	private final double mSampleRate;
+	private final int mWindowSize;
+	private final int mBinCount;
+	private final double[] mFrequencies;
+
+	// per bin: e^(jw), r^N * e^(jwN), running DFT value
+	private final double[] mTwiddleRe, mTwiddleIm;
+	private final double[] mTailRe, mTailIm;
+	private final double[] mRe, mIm;
+
+	private final DoubleRingBuffer mHistory;
+	private long mSampleCount;
+
+	private double mLastInput, mLastOutput;
+
+	private int mDominantBin;
+	private double mDominantPower;
+	private double mDominantFrequency;
+
+	public SlidingDFTCadenceEstimator(double sampleRate, int windowSize) {
+		this(sampleRate, windowSize, MIN_GAIT_FREQUENCY, MAX_GAIT_FREQUENCY, 0.1);
+	}
+
+	/**
+	 * @param sampleRate
+	 *            input sample rate in Hz
+	 * @param windowSize
+	 *            DFT window in samples
+	 * @param minFrequency
+	 *            lowest bin frequency in Hz
+	 * @param maxFrequency
+	 *            highest bin frequency in Hz
+	 * @param frequencyStep
+	 *            bin spacing in Hz
+	 */
+	public SlidingDFTCadenceEstimator(double sampleRate, int windowSize, double minFrequency,
+			double maxFrequency, double frequencyStep) {
+		if (maxFrequency >= sampleRate / 2 || minFrequency <= 0 || frequencyStep <= 0) {
+			throw new IllegalArgumentException("bins must lie between 0 and the Nyquist frequency");
+		}
+		mSampleRate = sampleRate;
+		mWindowSize = windowSize;
+		mBinCount = (int) Math.floor((maxFrequency - minFrequency) / frequencyStep + 1e-9) + 1;
+		mFrequencies = new double[mBinCount];
+		mTwiddleRe = new double[mBinCount];
+		mTwiddleIm = new double[mBinCount];
+		mTailRe = new double[mBinCount];
+		mTailIm = new double[mBinCount];
+		mRe = new double[mBinCount];
+		mIm = new double[mBinCount];
+		double dampingN = Math.pow(DAMPING, windowSize);
+		for (int k = 0; k < mBinCount; k++) {
+			double frequency = minFrequency + k * frequencyStep;
+			double omega = 2 * Math.PI * frequency / sampleRate;
+			mFrequencies[k] = frequency;
+			mTwiddleRe[k] = Math.cos(omega);
+			mTwiddleIm[k] = Math.sin(omega);
+			mTailRe[k] = dampingN * Math.cos(omega * windowSize);
+			mTailIm[k] = dampingN * Math.sin(omega * windowSize);
+		}
+		mHistory = new DoubleRingBuffer(windowSize);
+		mHistory.fill(0);
+	}
+
+	/**
+	 * Adds one sample and updates all bins.
+	 */
+	public void push(double value) {
+		// DC blocker
+		double x = value - mLastInput + DC_BLOCKER_POLE * mLastOutput;
+		if (mSampleCount == 0) {
+			x = 0;
+		}
+		mLastInput = value;
+		mLastOutput = x;
+
+		double old = mHistory.oldest();
+		mHistory.push(x);
+		mSampleCount++;
+
+		int dominantBin = 0;
+		double dominantPower = -1;
+		for (int k = 0; k < mBinCount; k++) {
+			double re = x + DAMPING * mRe[k] - mTailRe[k] * old;
+			double im = DAMPING * mIm[k] - mTailIm[k] * old;
+			double twiddleRe = mTwiddleRe[k];
+			double twiddleIm = mTwiddleIm[k];
+			double newRe = twiddleRe * re - twiddleIm * im;
+			double newIm = twiddleRe * im + twiddleIm * re;
+			mRe[k] = newRe;
+			mIm[k] = newIm;
+			double power = newRe * newRe + newIm * newIm;
+			if (power > dominantPower) {
+				dominantPower = power;
+				dominantBin = k;
+			}
+		}
+		mDominantBin = dominantBin;
+		mDominantPower = dominantPower;
+		mDominantFrequency = interpolate(dominantBin);
+	}
+
+	/**
+	 * Parabolic interpolation of the peak between the neighbouring bins.
+	 */
+	private double interpolate(int bin) {
+		if (bin == 0 || bin == mBinCount - 1) {
+			return mFrequencies[bin];
+		}
+		double left = Math.sqrt(getPower(bin - 1));
+		double center = Math.sqrt(getPower(bin));
+		double right = Math.sqrt(getPower(bin + 1));
+		double denominator = left - 2 * center + right;
+		if (denominator == 0) {
+			return mFrequencies[bin];
+		}
+		double delta = 0.5 * (left - right) / denominator;
+		return mFrequencies[bin] + delta * (mFrequencies[1] - mFrequencies[0]);
+	}
+
+	/**
+	 * @return true once a full window of samples was pushed
+	 */
+	public boolean isWarmedUp() {
+		return mSampleCount >= mWindowSize;
+	}
+
+	/**
+	 * @return dominant gait frequency in Hz
+	 */
+	public double getDominantFrequency() {
+		return mDominantFrequency;
+	}
+
+	/**
+	 * @return amplitude of the dominant frequency component in the input units
+	 */
+	public double getDominantAmplitude() {
+		return 2 * Math.sqrt(mDominantPower) / mWindowSize;
+	}
+
+	public int getDominantBin() {
+		return mDominantBin;
+	}
+
+	public int getBinCount() {
+		return mBinCount;
+	}
+
+	public double getFrequency(int bin) {
+		return mFrequencies[bin];
+	}
+
+	/**
+	 * @return squared magnitude of the bin
+	 */
+	public double getPower(int bin) {
+		return mRe[bin] * mRe[bin] + mIm[bin] * mIm[bin];
+	}
+
+	public double getSampleRate() {
+		return mSampleRate;
+	}
+
+	public int getWindowSize() {
+		return mWindowSize;
+	}
+
+	public void reset() {
+		mHistory.fill(0);
+		Arrays.fill(mRe, 0);
+		Arrays.fill(mIm, 0);
+		mSampleCount = 0;
+		mLastInput = 0;
+		mLastOutput = 0;
+		mDominantBin = 0;
+		mDominantPower = 0;
+		mDominantFrequency = 0;
+	}
+}
@@ -0,0 +1,45 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * SpectralStepDetector class, step detection from the dominant gait
+ * frequency. Thin Android adapter over {@link SpectralStepDetectorCore}.
+ *
+ */
+public class SpectralStepDetector extends StepDetector {
+
+	private final SpectralStepDetectorCore mCore;
+
+	public SpectralStepDetector() {
+		this(new SpectralStepDetectorCore());
+	}
+
+	public SpectralStepDetector(SpectralStepDetectorCore core) {
+		mCore = core;
+		mCore.addPrimitiveStepListener(new IPrimitiveStepListener() {
+			@Override
+			public void onStep(long timestamp, double duration, double strideLength) {
+				notifyOnStep(timestamp, duration, strideLength);
+			}
+		});
+	}
+
+	public SpectralStepDetectorCore getCore() {
+		return mCore;
+	}
+
+	@Override
+	public void setMetrics(StepDetectorMetrics metrics) {
+		super.setMetrics(metrics);
+		mCore.setWrappedMetrics(metrics);
+	}
+
+	@Override
+	public double push(long timestampNanos, float x, float y, float z) {
+		return mCore.push(timestampNanos, x, y, z);
+	}
+
+	@Override
+	public int pushBatch(long[] timestamps, float[] xyz, int count) {
+		return mCore.pushBatch(timestamps, xyz, count);
+	}
+}
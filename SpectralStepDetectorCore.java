@@ -0,0 +1,173 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * SpectralStepDetectorCore class, Android-free step detector counting steps
+ * from the dominant gait frequency. The z axis is averaged over fixed time
+ * blocks, the block averages feed a {@link SlidingDFTCadenceEstimator} and
+ * the step phase advances by the dominant frequency times the block period.
+ * Blocks the input has no samples for are interpolated, so the block stream
+ * stays uniform at {@link #PROCESSING_RATE} for slower sensors and across
+ * short gaps.
+ * A step is emitted each time the phase completes a cycle while the gait
+ * component is strong enough.
+ *
+ * A raw sample costs one addition and one comparison, the spectral work is
+ * done once per block, so the per-sample cost doesn't grow with the sensor
+ * rate.
+ *
+ */
+public class SpectralStepDetectorCore extends HeadlessStepDetector {
+
+	private static final long SECOND_IN_NANOSECONDS = (long) Math.pow(10, 9);
+
+	public static final double PROCESSING_RATE = 25.0; // block rate in Hz
+	public static final double WINDOW = 4.0; // DFT window in seconds
+	public static final double MIN_AMPLITUDE = 1.0; // of the gait component in m/s^2
+	public static final double MAX_AMPLITUDE = 20.0;
+
+	private final SlidingDFTCadenceEstimator mEstimator;
+	private final long mBlockPeriod;
+	private final int mWindowBlocks;
+	private final double mBlockSeconds;
+	private final double mMinAmplitude, mMaxAmplitude;
+	private IStrideModel mStrideModel;
+
+	private long mBlockEnd = Long.MIN_VALUE;
+	private double mBlockSum;
+	private int mBlockCount;
+	private double mPhase;
+
+	public SpectralStepDetectorCore() {
+		this(MIN_AMPLITUDE, MAX_AMPLITUDE, new HeightStrideModel(MovingAverageStepDetectorCore.DEFAULT_HEIGHT));
+	}
+
+	/**
+	 * @param minAmplitude
+	 *            gait component amplitude below which no steps are counted
+	 * @param maxAmplitude
+	 *            gait component amplitude above which no steps are counted
+	 */
+	public SpectralStepDetectorCore(double minAmplitude, double maxAmplitude, IStrideModel strideModel) {
+		mMinAmplitude = minAmplitude;
+		mMaxAmplitude = maxAmplitude;
+		mStrideModel = strideModel;
+		mBlockPeriod = (long) (SECOND_IN_NANOSECONDS / PROCESSING_RATE);
+		mBlockSeconds = (double) mBlockPeriod / SECOND_IN_NANOSECONDS;
+		mWindowBlocks = (int) (WINDOW * PROCESSING_RATE);
+		mEstimator = new SlidingDFTCadenceEstimator(PROCESSING_RATE, mWindowBlocks);
+	}
+
+	public void setStrideModel(IStrideModel strideModel) {
+		mStrideModel = strideModel;
+	}
+
+	/**
+	 * @return dominant gait frequency in Hz
+	 */
+	public double getCadence() {
+		return mEstimator.getDominantFrequency();
+	}
+
+	/**
+	 * @return amplitude of the dominant gait component
+	 */
+	public double getGaitAmplitude() {
+		return mEstimator.getDominantAmplitude();
+	}
+
+	@Override
+	public double push(long timestampNanos, float x, float y, float z) {
+		StepDetectorMetrics metrics = mMetrics;
+		if (metrics == null) {
+			return processSample(timestampNanos, z);
+		}
+		long start = metrics.now();
+		double strideLength = processSample(timestampNanos, z);
+		metrics.recordSample(start);
+		return strideLength;
+	}
+
+	/**
+	 * @return stride length of the last step completed by the sample, a
+	 *         sample after a gap can complete several
+	 */
+	private double processSample(long timestampNanos, float z) {
+		if (timestampNanos < mBlockEnd) {
+			mBlockSum += z;
+			mBlockCount++;
+			return NO_STEP;
+		}
+
+		if (mBlockCount == 0) {
+			mBlockEnd = timestampNanos + mBlockPeriod;
+			mBlockSum = z;
+			mBlockCount = 1;
+			return NO_STEP;
+		}
+		double value = mBlockSum / mBlockCount;
+		double strideLength = processBlock(mBlockEnd, value);
+		long emptyBlocks = (timestampNanos - mBlockEnd) / mBlockPeriod;
+		if (emptyBlocks <= mWindowBlocks) {
+			// blocks without samples, below the block rate or across sensor
+			// gaps, are interpolated between the last block and this sample,
+			// so the DFT sees a uniform block stream
+			long center = mBlockEnd - mBlockPeriod / 2;
+			for (long k = 1; k <= emptyBlocks; k++) {
+				long blockEnd = mBlockEnd + k * mBlockPeriod;
+				double fraction = (double) (blockEnd - mBlockPeriod / 2 - center) / (timestampNanos - center);
+				double blockStrideLength = processBlock(blockEnd, value + (z - value) * fraction);
+				if (blockStrideLength != NO_STEP) {
+					strideLength = blockStrideLength;
+				}
+			}
+			mBlockEnd += (emptyBlocks + 1) * mBlockPeriod;
+		} else {
+			// a gap longer than the DFT window, nothing to interpolate across;
+			// the spectrum of the samples before it is stale
+			mEstimator.reset();
+			mPhase = 0;
+			mBlockEnd = timestampNanos + mBlockPeriod;
+		}
+		mBlockSum = z;
+		mBlockCount = 1;
+		return strideLength;
+	}
+
+	private double processBlock(long timestampNanos, double value) {
+		mEstimator.push(value);
+		if (!mEstimator.isWarmedUp()) {
+			return NO_STEP;
+		}
+
+		double amplitude = mEstimator.getDominantAmplitude();
+		StepDetectorMetrics metrics = mMetrics;
+		if (amplitude < mMinAmplitude || amplitude > mMaxAmplitude) {
+			if (metrics != null && mPhase != 0) {
+				// a gait cycle in progress is abandoned
+				if (amplitude < mMinAmplitude) {
+					metrics.recordRejectedPowerLow();
+				} else {
+					metrics.recordRejectedPowerHigh();
+				}
+			}
+			mPhase = 0;
+			return NO_STEP;
+		}
+
+		double frequency = mEstimator.getDominantFrequency();
+		mPhase += frequency * mBlockSeconds;
+		if (mPhase < 1) {
+			return NO_STEP;
+		}
+		mPhase -= 1;
+
+		double strideDuration = 1 / frequency;
+		double strideLength = mStrideModel.getStrideLength(strideDuration);
+		if (metrics != null) {
+			metrics.recordCandidatePower(amplitude * amplitude);
+			metrics.recordAccepted(strideDuration);
+		}
+		notifyOnStep(timestampNanos, strideDuration, strideLength);
+		return strideLength;
+	}
+}
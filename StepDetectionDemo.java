@@ -3,22 +3,28 @@ package cz.muni.fi.sandbox.service.stepdetector;
 import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Paint.Style;
 import android.graphics.Path;
 import android.graphics.RectF;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+
 import cz.muni.fi.sandbox.dsp.filters.ContinuousConvolution;
 import cz.muni.fi.sandbox.dsp.filters.FrequencyCounter;
 import cz.muni.fi.sandbox.dsp.filters.SinXPiWindow;
@@ -28,6 +34,22 @@ public class StepDetectionDemo extends Activity {
 
 	private static final String TAG = "Sensors";
 
+	// plot channels: raw value, short and long moving average, power,
+	// convolution
+	private static final int CHANNEL_POWER = 3;
+	private static final int CHANNEL_CONVOLUTION = 4;
+	private static final int CHANNELS = 5;
+	private static final int MARKER_STEP = 0;
+	private static final int MARKER_REJECTED_STEP = 1;
+	private static final int MARKER_TOUCH = 2;
+	private static final int MARKERS = 3;
+	// 100 pixels per second
+	private static final long NANOS_PER_COLUMN = 10000000;
+	// recordings kept in the external files directory, the oldest go first
+	private static final int MAX_RECORDINGS = 10;
+	private static final String RECORDING_PREFIX = "session-";
+	private static final String RECORDING_SUFFIX = ".rec";
+
 	private SensorManager mSensorManager;
 	private GraphView mGraphView;
 	private Sensor mAccelerometer;
@@ -47,27 +69,31 @@ public class StepDetectionDemo extends Activity {
 	
 	
 	private class GraphView extends View implements SensorEventListener {
-		private Bitmap mBitmap;
 		private Paint mPaint = new Paint();
-		private Canvas mCanvas = new Canvas();
 		private Path mPath = new Path();
+		private Path mTouchPath = new Path();
 		private RectF mRect = new RectF();
-		private float mLastValues[] = new float[3 * 2];
 		private int mColors[] = new int[3 * 2];
-		private float mLastX;
 		private float mScale[] = new float[3];
 		private float[] mYOffset = new float[4];
 		private float mYOffset2;
 		private float mMaxX;
-		private float mSpeed = 1f;
 		private float mWidth;
 		private float mHeight;
 		private int mMASize = 20;
 
 		private MovingAverageStepDetector mStepDetector;
+		private MovingAverageStepDetectorState mStepDetectorState;
 		private ContinuousConvolution mCC;
 		private FrequencyCounter freqCounter;
-		private boolean mTouched;
+		private volatile boolean mTouched;
+
+		// render model filled on the sensor thread, drawn once per frame
+		private PlotDecimator mPlot;
+		private float[] mLines;
+		private float[] mPoints;
+		private boolean mInvalidatePending;
+		private volatile SessionRecorder mRecorder;
 
 		
 		public GraphView(Context context) {
@@ -116,6 +142,10 @@ public class StepDetectionDemo extends Activity {
 			}
 			
 			mStepDetector = new MovingAverageStepDetector(movingAverage1, movingAverage2, lowPowerCutoff, highPowerCutoff);
+			if (prefs != null && prefs.getBoolean("resampling_preference", false)) {
+				mStepDetector.setResampling(ResamplingStepDetector.DEFAULT_TARGET_RATE);
+			}
+			mStepDetectorState = mStepDetector.getState();
 			// mStepDetector = new MovingAverageStepDetector();
 
 			mCC = new ContinuousConvolution(new SinXPiWindow(mMASize));
@@ -130,6 +160,11 @@ public class StepDetectionDemo extends Activity {
 			switch (event.getAction()) {
 			case MotionEvent.ACTION_UP:
 				mTouched = true;
+				SessionRecorder recorder = mRecorder;
+				if (recorder != null) {
+					// sensor event timestamps use the elapsed realtime clock
+					recorder.recordLabel(SystemClock.elapsedRealtimeNanos(), 1);
+				}
 				Log.d(TAG, "touch event detected");
 				break;
 			}
@@ -138,11 +173,39 @@ public class StepDetectionDemo extends Activity {
 		
 		
 
+		/**
+		 * Records the samples, the touch labels and the detected steps into
+		 * the file until {@link #stopRecording()}. A recording still running
+		 * is closed first.
+		 */
+		void startRecording(File file) {
+			stopRecording();
+			try {
+				SessionRecorder recorder = new SessionRecorder(file, Build.MODEL);
+				mStepDetector.addPrimitiveStepListener(recorder);
+				mRecorder = recorder;
+			} catch (IOException e) {
+				Log.e(TAG, "cannot record into " + file, e);
+			}
+		}
+
+		/**
+		 * Stops the recording without waiting for the file, the recorder's
+		 * writer thread finishes and closes it.
+		 */
+		void stopRecording() {
+			SessionRecorder recorder = mRecorder;
+			if (recorder == null) {
+				return;
+			}
+			mRecorder = null;
+			mStepDetector.removePrimitiveStepListener(recorder);
+			recorder.closeAsync();
+			Log.d(TAG, "recording stopped, dropped " + recorder.getDroppedCount() + " records");
+		}
+
 		@Override
 		protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-			mBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.RGB_565);
-			mCanvas.setBitmap(mBitmap);
-			mCanvas.drawColor(0xFFFFFFFF);
 			mYOffset[0] = h * 0.5f;
 			mYOffset[1] = h * 0.25f;
 			mYOffset[2] = h * 0.25f;
@@ -159,148 +222,130 @@ public class StepDetectionDemo extends Activity {
 			} else {
 				mMaxX = w - 50;
 			}
-			mLastX = mMaxX;
+			synchronized (this) {
+				mPlot = new PlotDecimator(CHANNELS, MARKERS, Math.max(1, (int) mMaxX), NANOS_PER_COLUMN);
+				mLines = new float[mPlot.getLineBufferSize()];
+				mPoints = new float[2 * mPlot.getColumns()];
+			}
 			super.onSizeChanged(w, h, oldw, oldh);
 		}
 
 		
 		
+		/**
+		 * Draws the render model, the cost depends on the view width only.
+		 */
 		@Override
 		protected void onDraw(Canvas canvas) {
 			synchronized (this) {
-				if (mBitmap != null) {
-					final Paint paint = mPaint;
-
-					if (mLastX >= mMaxX) {
-						mLastX = 0;
-						final Canvas cavas = mCanvas;
-						final float yoffset = mYOffset2;
-						final float maxx = mMaxX;
-						final float oneG = SensorManager.STANDARD_GRAVITY * mScale[0];
-						paint.setColor(0xFFAAAAAA);
-						cavas.drawColor(0xFFFFFFFF);
-						cavas.drawLine(0, yoffset, maxx, yoffset, paint);
-						cavas.drawLine(0, yoffset + oneG, maxx, yoffset + oneG,
-								paint);
-						cavas.drawLine(0, yoffset - oneG, maxx, yoffset - oneG,
-								paint);
-					}
-					canvas.drawBitmap(mBitmap, 0, 0, null);
+				mInvalidatePending = false;
+				final PlotDecimator plot = mPlot;
+				if (plot == null) {
+					return;
+				}
+				final Paint paint = mPaint;
+				final float[] lines = mLines;
+				final float[] points = mPoints;
+
+				final float yoffset = mYOffset2;
+				final float maxx = mMaxX;
+				final float oneG = SensorManager.STANDARD_GRAVITY * mScale[0];
+				canvas.drawColor(0xFFFFFFFF);
+				paint.setColor(0xFFAAAAAA);
+				canvas.drawLine(0, yoffset, maxx, yoffset, paint);
+				canvas.drawLine(0, yoffset + oneG, maxx, yoffset + oneG, paint);
+				canvas.drawLine(0, yoffset - oneG, maxx, yoffset - oneG, paint);
+				int cursor = plot.getCursor();
+				if (cursor >= 0) {
+					canvas.drawLine(cursor + 1, 30, cursor + 1, mHeight, paint);
 				}
-			}
-		}
 
-		
-		
-		
-		
+				// draw convolution
+				paint.setColor(Color.BLACK);
+				canvas.drawLines(lines, 0, plot.fillLines(CHANNEL_CONVOLUTION, lines, mYOffset[1], mScale[0]), paint);
 
-		float mConvolution, mLastConvolution;
+				// draw power
+				paint.setColor(mColors[4]);
+				canvas.drawLines(lines, 0, plot.fillLines(CHANNEL_POWER, lines, mYOffset[1], mScale[2]), paint);
 
-		private void displayStepDetectorState(
-				MovingAverageStepDetectorState state) {
+				// draw power cutoff threshold
+				float v = mYOffset[1] + mStepDetector.getLowPowerThreshold() * mScale[2];
+				paint.setColor(Color.RED);
+				canvas.drawLine(0, v, mWidth, v, paint);
 
-			final Canvas canvas = mCanvas;
-			final Paint paint = mPaint;
+				// draw lines, the values are plotted inverted
+				for (int i = 0; i < 3; i++) {
+					paint.setColor(mColors[i]);
+					canvas.drawLines(lines, 0, plot.fillLines(i, lines, mYOffset[i], -mScale[0]), paint);
+				}
 
-			float deltaX = mSpeed;
-			float newX = mLastX + deltaX;
+				// draw steps on the long moving average
+				paint.setColor(Color.GREEN);
+				int n = plot.fillMarkers(MARKER_STEP, points, mYOffset[2], -mScale[0]);
+				for (int i = 0; i < n; i += 2) {
+					canvas.drawCircle(points[i], points[i + 1], 5, paint);
+				}
+				paint.setColor(Color.RED);
+				n = plot.fillMarkers(MARKER_REJECTED_STEP, points, mYOffset[2], -mScale[0]);
+				for (int i = 0; i < n; i += 2) {
+					canvas.drawCircle(points[i], points[i + 1], 5, paint);
+				}
 
-			float[] maValues = new float[4];
-			boolean stepDetected = false;
-			boolean signalPowerOutOfRange = true;
+				// draw touch events
+				paint.setColor(Color.GREEN);
+				n = plot.fillMarkers(MARKER_TOUCH, points, mYOffset[1], 0);
+				for (int i = 0; i < n; i += 2) {
+					float x = points[i];
+					mTouchPath.reset();
+					mTouchPath.moveTo(x, mYOffset[1] + 50);
+					mTouchPath.lineTo(x + 10, mYOffset[1] + 36);
+					mTouchPath.lineTo(x - 10, mYOffset[1] + 36);
+					mTouchPath.close();
+					canvas.drawPath(mTouchPath, paint);
+				}
 
-			maValues[0] = -state.values[0];
-			maValues[1] = -state.values[1];
-			maValues[2] = -state.values[2];
-			maValues[3] = state.values[3];
+				paint.setColor(Color.WHITE);
+				canvas.drawRect(0, 0, mWidth, 30, paint);
+				paint.setColor(Color.BLACK);
+				canvas.drawText("sensor rate: " + freqCounter.getRateF(), 0, 20, paint);
+			}
+		}
 
-			stepDetected = state.states[0];
-			signalPowerOutOfRange = state.states[1];
+		
+		
+		
+		
 
-			float v = 0;
+		float mConvolution;
 
-			
-			
-			
-			// draw convolution
-			v = mYOffset[1] + mConvolution * mScale[0]; // (float)(-mHeight *
-														// 0.5 / 1000.0);
-			paint.setColor(Color.BLACK);
-			canvas.drawLine(mLastX, mLastConvolution, newX, v, paint);
-			mLastConvolution = v;
-			
+		/**
+		 * Adds the detector state to the render model and asks for a redraw
+		 * on the next frame, several samples per frame share one redraw.
+		 */
+		private void displayStepDetectorState(long timestamp,
+				MovingAverageStepDetectorState state) {
 
-			
-			
-			
-			// draw power
-			v = mYOffset[1] + maValues[3] * mScale[2];
-			paint.setColor(mColors[4]);
-			canvas.drawLine(mLastX, mLastValues[3], newX, v, paint);
-			mLastValues[3] = v;
-			
-			
-			
-			
-			
-			// draw power cutoff threshold
-			
-			v = mYOffset[1] + mStepDetector.getLowPowerThreshold() * mScale[2];
-			paint.setColor(Color.RED);
-			canvas.drawLine(0, v, mWidth, v, paint);
-			
-			
-			
-			// draw lines
-			for (int i = 0; i < 3; i++) {
-				v = mYOffset[i] + maValues[i] * mScale[0];
-				paint.setColor(mColors[i]);
-				canvas.drawLine(mLastX, mLastValues[i], newX, v, paint);
-				mLastValues[i] = v;
+			final PlotDecimator plot = mPlot;
+			for (int i = 0; i < 4; i++) {
+				plot.push(timestamp, i, state.values[i]);
 			}
-			
-			
+			plot.push(timestamp, CHANNEL_CONVOLUTION, mConvolution);
 
-			
-			// draw step
-			if (stepDetected) {
-				if (signalPowerOutOfRange) {
-					paint.setColor(Color.RED);
-				} else {
-					paint.setColor(Color.GREEN);
-				}
-				canvas.drawCircle(newX, v, 5, paint);
+			// mark step
+			if (state.states[0]) {
+				plot.mark(timestamp, state.states[1] ? MARKER_REJECTED_STEP : MARKER_STEP, state.values[2]);
 			}
-			
-			
-			
-			
-			// draw touch event
+
+			// mark touch event
 			if (mTouched) {
 				mTouched = false;
-				//paint.setStyle(Style.STROKE);
-				paint.setColor(Color.GREEN);
-				Path path = new Path();
-				path.moveTo(newX, mYOffset[1] + 50);
-				path.lineTo(newX + 10, mYOffset[1] + 36);
-				path.lineTo(newX - 10, mYOffset[1] + 36);
-				path.close();
-				canvas.drawPath(path, paint);
-				//canvas.drawCircle(newX, mYOffset[1], 10, paint);
-				paint.setStyle(Style.FILL);
+				plot.mark(timestamp, MARKER_TOUCH, 0);
 			}
-			
-			
-			paint.setColor(Color.WHITE);
-			canvas.drawRect(0, 0, mWidth, 30, paint);
-			paint.setColor(Color.BLACK);
-			canvas.drawText("sensor rate: " + freqCounter.getRateF(), 0, 20, paint);
-			
-
-			mLastX += mSpeed;
 
-			invalidate();
+			if (!mInvalidatePending) {
+				mInvalidatePending = true;
+				postInvalidateOnAnimation();
+			}
 		}
 		
 		
@@ -311,12 +356,12 @@ public class StepDetectionDemo extends Activity {
 		public void onSensorChanged(SensorEvent event) {
 			synchronized (this) {
 				if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
+					SessionRecorder recorder = mRecorder;
+					if (recorder != null) {
+						recorder.recordSample(event.timestamp, event.values[0], event.values[1], event.values[2]);
+					}
 					processAccelerometerEvent(event);
 					freqCounter.push(event.timestamp);
-					float rate = freqCounter.getRateF();
-					if (rate != 0.0f)
-						mSpeed = 100f / rate;
-					invalidate();
 				}
 			}
 		}
@@ -328,10 +373,10 @@ public class StepDetectionDemo extends Activity {
 			// Log.d(TAG, "sensor: " + sensor + ", x: " + values[0] + ", y: " +
 			// values[1] + ", z: " + values[2]);
 
-			if (mBitmap != null) {
+			if (mPlot != null) {
 				mConvolution = (float) (mCC.process(event.values[2]));
 				mStepDetector.onSensorChanged(event);
-				displayStepDetectorState(mStepDetector.getState());
+				displayStepDetectorState(event.timestamp, mStepDetector.getState(mStepDetectorState));
 			}
 		}
 
@@ -365,8 +410,16 @@ public class StepDetectionDemo extends Activity {
 	protected void onResume() {
 		super.onResume();
 
-		if (mAccelerometer != null)
+		if (mAccelerometer != null) {
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+			File directory = getExternalFilesDir(null);
+			if (prefs != null && prefs.getBoolean("recording_preference", false) && directory != null) {
+				deleteOldRecordings(directory);
+				mGraphView.startRecording(new File(directory, RECORDING_PREFIX + System.currentTimeMillis()
+						+ RECORDING_SUFFIX));
+			}
 			mSensorManager.registerListener(mGraphView, mAccelerometer, SensorManager.SENSOR_DELAY_FASTEST);
+		}
 		/*
 		 * if (mMagnetometer != null) mSensorManager.registerListener(this,
 		 * mMagnetometer, SensorManager.SENSOR_DELAY_FASTEST); if
@@ -376,6 +429,34 @@ public class StepDetectionDemo extends Activity {
 
 	}
 
+	/**
+	 * Keeps the newest recordings, making room for one more.
+	 */
+	private void deleteOldRecordings(File directory) {
+		File[] recordings = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(RECORDING_PREFIX) && name.endsWith(RECORDING_SUFFIX);
+			}
+		});
+		if (recordings == null || recordings.length < MAX_RECORDINGS) {
+			return;
+		}
+		// the names carry the start time with the same number of digits
+		Arrays.sort(recordings);
+		for (int i = 0; i <= recordings.length - MAX_RECORDINGS; i++) {
+			if (!recordings[i].delete()) {
+				Log.w(TAG, "cannot delete " + recordings[i]);
+			}
+		}
+	}
+
+	@Override
+	protected void onPause() {
+		mGraphView.stopRecording();
+		super.onPause();
+	}
+
 	@Override
 	protected void onStop() {
 		mSensorManager.unregisterListener(mGraphView);
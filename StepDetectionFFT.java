@@ -1,10 +1,6 @@
 package cz.muni.fi.sandbox.service.stepdetector;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
-import thirdparty.fft.Complex;
-import thirdparty.fft.FFT;
+import java.util.Arrays;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
@@ -21,7 +17,6 @@ import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.view.View;
 import cz.muni.fi.sandbox.dsp.filters.PipedCrossCorrelation;
-import cz.muni.fi.sandbox.dsp.filters.SineWaveCrossCorrelationBank;
 import cz.muni.fi.sandbox.utils.ColorRamping;
 
 /**
@@ -100,7 +95,7 @@ public class StepDetectionFFT extends Activity {
 			int size = signal2.length;
 			float scale = 10.0f;
 			for (int i = 0; i < size; i++) {
-				path.lineTo((i) * mWidth / size, (float) (mHeight / 4 + scale * signal2[i].re()));
+				path.lineTo((i) * mWidth / size, (float) (mHeight / 4 + scale * signal2[i]));
 			}
 			
 			paint.setColor(Color.BLACK);
@@ -110,7 +105,7 @@ public class StepDetectionFFT extends Activity {
 		
 		private void drawFFT(Canvas canvas) {
 			
-			if (lastFFT == null) {
+			if (!hasFFT) {
 				return;
 			}
 			
@@ -129,13 +124,13 @@ public class StepDetectionFFT extends Activity {
 			float scale = 1.0f;
 			for (int i = 0; i < size; i++) {
 				if (i > 0 && i < size / 2) { 
-					if (max <= lastFFT[i].re()) {
-						max = lastFFT[i].re();
+					if (max <= lastFFT[i]) {
+						max = lastFFT[i];
 						maxIndex = i;
 					}
 				}
 				path.lineTo((i) * mWidth / size,
-						(float) (mHeight / 2 - Math.abs(scale * lastFFT[i].re())));
+						(float) (mHeight / 2 - Math.abs(scale * lastFFT[i])));
 			}
 			paint.setColor(Color.BLUE);
 			canvas.drawPath(path, paint);
@@ -147,7 +142,7 @@ public class StepDetectionFFT extends Activity {
 			Paint paint2 = new Paint();
 			for (int i = 0; i < times; i++) {
 				
-				double gray = Math.abs(lastFFT[i].re()) / 100.0;
+				double gray = Math.abs(lastFFT[i]) / 100.0;
 				if (gray > 1) gray = 1;
 				paint2.setColor(ColorRamping.blackToWhiteRamp(gray));
 				canvas.drawLine(x, top + i * scaleY, x, top + (i + 1) * scaleY, paint2);
@@ -169,6 +164,7 @@ public class StepDetectionFFT extends Activity {
 			if (xcorrValues == null) {
 				return;
 			}
+			DoubleRingBuffer.Snapshot values = xcorrValues.snapshot(xcorrSnapshot);
 			
 			Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
 			paint.setStyle(Paint.Style.STROKE);
@@ -180,14 +176,13 @@ public class StepDetectionFFT extends Activity {
 			path.moveTo(0, yOffset);
 			
 			
-			int size = xcorrValues.size();
+			int size = values.size();
 			float scale = yOffset;
-			int i = 0;
-			for (double value: xcorrValues) {
+			for (int i = 0; i < size; i++) {
+				double value = values.get(i);
 				//Log.d(TAG, "drawXCorr: value = " + value);	
 				path.lineTo((i) * mWidth / size,
 						(float) (yOffset - (scale * Math.abs(value))));
-				i++;
 			}
 			canvas.drawPath(path, paint);
 		}
@@ -250,15 +245,11 @@ public class StepDetectionFFT extends Activity {
 			// Log.d(TAG, "sensor: " + sensor + ", x: " + values[0] + ", y: " +
 			// values[1] + ", z: " + values[2]);
 			
-			signal.poll();
-			signal.add(new Complex(event.values[2], 0.0));
-			
-			//Complex[] input = signal2;
+			signal.push(event.values[2]);
 
 			xcorr.push(event.values[2]);
-			xcorrValues.poll();
 			double xcorrV = xcorr.getRelativeValue();
-			xcorrValues.add(xcorrV);
+			xcorrValues.push(xcorrV);
 			//System.out.println(xcorrV);
 			
 			//signal2[signal2Index] = new Complex(event.values[2], 0.0);
@@ -267,14 +258,11 @@ public class StepDetectionFFT extends Activity {
 			if (stepCounter == STEP_SIZE) {
 				
 				
-				Object[] array = signal.toArray();
-				int i = 0;
-				for (Object value: array) {
-					signal2[i] = (Complex)value;
-					i++;
-				}
-				
-				lastFFT = FFT.fft(signal2);
+				signal.copyTo(signal2, 0);
+				System.arraycopy(signal2, 0, lastFFT, 0, SIGNAL_SIZE);
+				Arrays.fill(lastFFTImaginary, 0);
+				fft.forward(lastFFT, lastFFTImaginary);
+				hasFFT = true;
 				stepCounter = 0;
 				invalidate();
 			} else {
@@ -292,14 +280,18 @@ public class StepDetectionFFT extends Activity {
 
 	}
 
-	private Complex[] lastFFT;
-	private Queue<Complex> signal;
 	private static final int SIGNAL_SIZE = 64;
-	private Complex[] signal2 = new Complex[SIGNAL_SIZE];
+	private final PrimitiveFFT fft = new PrimitiveFFT(SIGNAL_SIZE);
+	private double[] lastFFT = new double[SIGNAL_SIZE]; // real parts
+	private double[] lastFFTImaginary = new double[SIGNAL_SIZE];
+	private boolean hasFFT;
+	private DoubleRingBuffer signal;
+	private double[] signal2 = new double[SIGNAL_SIZE];
 	//private int signal2Index = 0;
 	private PipedCrossCorrelation xcorr;
-	private Queue<Double> xcorrValues;
-	private SineWaveCrossCorrelationBank xcBank;
+	private DoubleRingBuffer xcorrValues;
+	private DoubleRingBuffer.Snapshot xcorrSnapshot = new DoubleRingBuffer.Snapshot();
+	private BlockCrossCorrelationBank xcBank;
 	
 	/**
 	 * Initialization of the Activity after it is first created. Must at least
@@ -318,13 +310,13 @@ public class StepDetectionFFT extends Activity {
 		mGraphView = new GraphView(this);
 		setContentView(mGraphView);
 
-		signal = new LinkedList<Complex>();
+		signal = new DoubleRingBuffer(SIGNAL_SIZE);
+		signal.fill(0.0);
 
 		float f0 = 50; 
 		
 		for (int i = 0; i < SIGNAL_SIZE; i++) {
-			signal.add(new Complex(0.0, 0.0));
-			signal2[i] = new Complex(Math.sin(2 * Math.PI * f0 * i / SIGNAL_SIZE), 0.0);
+			signal2[i] = Math.sin(2 * Math.PI * f0 * i / SIGNAL_SIZE);
 		}
 		
 		int kernelSize = (int)(100 * 0.7);
@@ -334,12 +326,10 @@ public class StepDetectionFFT extends Activity {
 		}
 		xcorr = new PipedCrossCorrelation(xcorrKernel);
 		
-		xcorrValues = new LinkedList<Double>();
-		for (int i = 0; i < SIGNAL_SIZE; i++) {
-			xcorrValues.add(0.0);
-		}
+		xcorrValues = new DoubleRingBuffer(SIGNAL_SIZE);
+		xcorrValues.fill(0.0);
 		
-		xcBank = new SineWaveCrossCorrelationBank(100, new float[] {2.0f, 1.9f, 1.8f, 1.7f, 1.6f, 1.5f, 1.4f, 1.3f, 1.2f, 1.1f, 1.0f});
+		xcBank = BlockCrossCorrelationBank.sineWaveBank(100, new float[] {2.0f, 1.9f, 1.8f, 1.7f, 1.6f, 1.5f, 1.4f, 1.3f, 1.2f, 1.1f, 1.0f});
 	}
 
 	@Override
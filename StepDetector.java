@@ -1,31 +1,23 @@
 package cz.muni.fi.sandbox.service.stepdetector;
 
-import java.util.ArrayList;
-
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
-import android.util.Log;
+import android.os.SystemClock;
 
 /**
- * Step detector base class. Can be used as a dummy step detector. Doesn't
- * detect any steps.
- * 
+ * Step detector base class, adapts {@link HeadlessStepDetector} to the Android
+ * sensor framework. Can be used as a dummy step detector. Doesn't detect any
+ * steps.
+ *
  */
-public class StepDetector implements SensorEventListener, IStepDetector {
-
-	protected ArrayList<IStepListener> mStepListeners = new ArrayList<IStepListener>();
-	
-
-	public void addStepListener(IStepListener sl) {
-		if (sl != null) {
-			mStepListeners.add(sl);
-		}
-	}
+public class StepDetector extends HeadlessStepDetector implements SensorEventListener {
 
 	@Override
 	public void onSensorChanged(SensorEvent event) {
-		// TODO Auto-generated method stub
+		if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
+			push(event.timestamp, event.values[0], event.values[1], event.values[2]);
+		}
 	}
 
 	@Override
@@ -33,17 +25,27 @@ public class StepDetector implements SensorEventListener, IStepDetector {
 		// TODO Auto-generated method stub
 	}
 
-	protected void notifyOnStep(StepEvent event) {
-		for (IStepListener stepListener : mStepListeners) {
-			stepListener.onStepEvent(event);
-		}
-		Log.d("TAG", event.toString());
+	/**
+	 * Collects metrics with the latency measured against the sensor event
+	 * clock, use {@link #getMetrics()} to read them off the hot path.
+	 */
+	public StepDetectorMetrics enableMetrics() {
+		StepDetectorMetrics metrics = new StepDetectorMetrics(new StepDetectorMetrics.Clock() {
+			@Override
+			public long nanoTime() {
+				return SystemClock.elapsedRealtimeNanos();
+			}
+		});
+		setMetrics(metrics);
+		return metrics;
 	}
 
 	public static StepDetector stepDetectorFactory(String detectorName) {
 
 		if (detectorName.equals("moving_average")) {
 			return new MovingAverageStepDetector();
+		} else if (detectorName.equals("spectral")) {
+			return new SpectralStepDetector();
 		} else if (detectorName.equals("null")) {
 			return new StepDetector();
 		}
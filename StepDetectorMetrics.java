@@ -0,0 +1,164 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * StepDetectorMetrics class, counters and histograms of a detector pipeline:
+ * accepted steps, rejected steps by reason, stride duration, signal power at
+ * the step candidates, per-sample processing time and the latency from the
+ * sensor timestamp to the listener notification.
+ *
+ * A detector collects metrics only while an instance is set with
+ * {@link HeadlessStepDetector#setMetrics}, otherwise the cost is one null
+ * check per sample. Each counter and histogram has a single writer, the
+ * detector thread or the dispatch thread, which publishes every update with
+ * an ordered store. Readers on any thread get untorn values that are at most
+ * a few updates behind; values read one after another may be from different
+ * moments.
+ *
+ */
+public class StepDetectorMetrics {
+
+	/**
+	 * Time source of the same clock as the sensor timestamps.
+	 */
+	public interface Clock {
+		long nanoTime();
+	}
+
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	private final Clock mClock;
+
+	private static final int SAMPLES = 0;
+	private static final int ACCEPTED_STEPS = 1;
+	private static final int REJECTED_POWER_LOW = 2;
+	private static final int REJECTED_POWER_HIGH = 3;
+	private static final int REJECTED_DURATION = 4;
+	private final AtomicLongArray mCounters = new AtomicLongArray(5);
+
+	private final Histogram mStrideDuration = new Histogram(0.05, 8); // seconds, up to 6.4 s
+	private final Histogram mSignalPower = new Histogram(1, 32);
+	private final Histogram mSampleTime = new Histogram(16, 24); // nanoseconds
+	private final Histogram mStepLatency = new Histogram(1000, 24); // nanoseconds
+
+	public StepDetectorMetrics() {
+		this(SYSTEM_CLOCK);
+	}
+
+	/**
+	 * @param clock
+	 *            clock of the sensor timestamps, for the latency
+	 */
+	public StepDetectorMetrics(Clock clock) {
+		mClock = clock;
+	}
+
+	long now() {
+		return System.nanoTime();
+	}
+
+	void recordSample(long startNanos) {
+		mSampleTime.record(System.nanoTime() - startNanos);
+		increment(SAMPLES);
+	}
+
+	/**
+	 * Single writer increment, an ordered store instead of a CAS.
+	 */
+	private void increment(int counter) {
+		mCounters.lazySet(counter, mCounters.get(counter) + 1);
+	}
+
+	void recordCandidatePower(double power) {
+		mSignalPower.record(power);
+	}
+
+	void recordAccepted(double strideDuration) {
+		mStrideDuration.record(strideDuration);
+		increment(ACCEPTED_STEPS);
+	}
+
+	void recordRejectedPowerLow() {
+		increment(REJECTED_POWER_LOW);
+	}
+
+	void recordRejectedPowerHigh() {
+		increment(REJECTED_POWER_HIGH);
+	}
+
+	void recordRejectedDuration() {
+		increment(REJECTED_DURATION);
+	}
+
+	void recordDelivered(long stepTimestamp) {
+		mStepLatency.record(mClock.nanoTime() - stepTimestamp);
+	}
+
+	public long getSampleCount() {
+		return mCounters.get(SAMPLES);
+	}
+
+	public long getAcceptedSteps() {
+		return mCounters.get(ACCEPTED_STEPS);
+	}
+
+	/**
+	 * @return step candidates rejected because the signal power was below the
+	 *         low cutoff
+	 */
+	public long getRejectedPowerLow() {
+		return mCounters.get(REJECTED_POWER_LOW);
+	}
+
+	/**
+	 * @return step candidates rejected because the signal power was above the
+	 *         high cutoff
+	 */
+	public long getRejectedPowerHigh() {
+		return mCounters.get(REJECTED_POWER_HIGH);
+	}
+
+	/**
+	 * @return step candidates rejected because the stride duration was NaN or
+	 *         out of range
+	 */
+	public long getRejectedDuration() {
+		return mCounters.get(REJECTED_DURATION);
+	}
+
+	public Histogram getStrideDurationHistogram() {
+		return mStrideDuration;
+	}
+
+	public Histogram getSignalPowerHistogram() {
+		return mSignalPower;
+	}
+
+	/**
+	 * @return per-sample processing time in nanoseconds
+	 */
+	public Histogram getSampleTimeHistogram() {
+		return mSampleTime;
+	}
+
+	/**
+	 * @return latency from the sensor timestamp to the listener notification
+	 *         in nanoseconds
+	 */
+	public Histogram getStepLatencyHistogram() {
+		return mStepLatency;
+	}
+
+	public String toString() {
+		return "StepDetectorMetrics(samples=" + getSampleCount() + ", accepted=" + getAcceptedSteps()
+				+ ", rejectedPowerLow=" + getRejectedPowerLow() + ", rejectedPowerHigh=" + getRejectedPowerHigh()
+				+ ", rejectedDuration=" + getRejectedDuration() + ", strideDuration=" + mStrideDuration
+				+ ", sampleTime=" + mSampleTime + ", latency=" + mStepLatency + ")";
+	}
+}
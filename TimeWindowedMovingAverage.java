@@ -0,0 +1,162 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * TimeWindowedMovingAverage class, average of the samples of the last window
+ * seconds over irregular timestamps. The samples are kept in a fixed capacity
+ * {@link DoubleRingBuffer} with a running sum, a push costs amortized O(1) and
+ * allocates nothing. The sum is compensated (Neumaier), so adding and
+ * removing values for hours doesn't drift.
+ *
+ * A sample leaves the window when its timestamp is at or before the newest
+ * timestamp minus the window. When the buffer is full the oldest sample is
+ * dropped early, size the capacity for the highest expected sample rate.
+ * This differs from the unbounded dsp.filters.MovingAverageTD it replaced:
+ * input faster than {@link #DEFAULT_MAX_SAMPLE_RATE} (1 kHz) over a window
+ * silently averages only the newest capacity samples, i.e. a shorter time
+ * span than the window. Below that rate the two agree.
+ *
+ */
+public final class TimeWindowedMovingAverage {
+
+	// above it samples are evicted before they leave the window
+	public static final double DEFAULT_MAX_SAMPLE_RATE = 1000; // in Hz
+
+	private static final double SECOND_IN_NANOSECONDS = 1e9;
+
+	private final long mWindow;
+	private final DoubleRingBuffer mSamples;
+
+	private double mSum;
+	private double mCompensation;
+
+	public TimeWindowedMovingAverage(double windowSeconds) {
+		this(windowSeconds, DEFAULT_MAX_SAMPLE_RATE);
+	}
+
+	/**
+	 * @param windowSeconds
+	 *            window length in seconds
+	 * @param maxSampleRate
+	 *            highest expected sample rate in Hz, sizes the buffers
+	 */
+	public TimeWindowedMovingAverage(double windowSeconds, double maxSampleRate) {
+		this(windowSeconds, new DoubleRingBuffer(capacity(windowSeconds, maxSampleRate)));
+	}
+
+	/**
+	 * Average keeping its samples in the given, empty buffer, e.g. a slice of
+	 * storage shared by many averages.
+	 */
+	TimeWindowedMovingAverage(double windowSeconds, DoubleRingBuffer samples) {
+		mWindow = (long) (windowSeconds * SECOND_IN_NANOSECONDS);
+		mSamples = samples;
+	}
+
+	/**
+	 * @return buffer capacity for the window at the sample rate
+	 */
+	static int capacity(double windowSeconds, double maxSampleRate) {
+		return (int) Math.ceil(windowSeconds * maxSampleRate) + 1;
+	}
+
+	/**
+	 * @param timestamp
+	 *            in nanoseconds, not decreasing
+	 */
+	public void push(long timestamp, double value) {
+		DoubleRingBuffer samples = mSamples;
+		long limit = timestamp - mWindow;
+		while (!samples.isEmpty() && (samples.isFull() || samples.oldestTimestamp() <= limit)) {
+			add(-samples.removeOldest());
+		}
+		samples.push(timestamp, value);
+		if (samples.size() == 1) {
+			// an empty window restarts the sum, whatever rounding was left
+			mSum = value;
+			mCompensation = 0;
+		} else {
+			add(value);
+		}
+	}
+
+	private void add(double value) {
+		double sum = mSum + value;
+		if (Math.abs(mSum) >= Math.abs(value)) {
+			mCompensation += (mSum - sum) + value;
+		} else {
+			mCompensation += (value - sum) + mSum;
+		}
+		mSum = sum;
+	}
+
+	/**
+	 * @return average of the samples in the window, 0 when empty
+	 */
+	public double getAverage() {
+		int size = mSamples.size();
+		return size == 0 ? 0 : (mSum + mCompensation) / size;
+	}
+
+	public double getSum() {
+		return mSum + mCompensation;
+	}
+
+	public int size() {
+		return mSamples.size();
+	}
+
+	public int capacity() {
+		return mSamples.capacity();
+	}
+
+	/**
+	 * Writes the window length and the samples in the window, oldest first,
+	 * with the running sum.
+	 */
+	public void writeState(DataOutput out) throws IOException {
+		DoubleRingBuffer samples = mSamples;
+		int size = samples.size();
+		out.writeLong(mWindow);
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeLong(samples.getTimestamp(i));
+			out.writeDouble(samples.get(i));
+		}
+		out.writeDouble(mSum);
+		out.writeDouble(mCompensation);
+	}
+
+	/**
+	 * Replaces the state with one written by {@link #writeState(DataOutput)}.
+	 *
+	 * @throws IOException
+	 *             when the state is of a different window or doesn't fit the
+	 *             capacity
+	 */
+	public void readState(DataInput in) throws IOException {
+		if (in.readLong() != mWindow) {
+			throw new IOException("moving average state of a different window");
+		}
+		int size = in.readInt();
+		if (size < 0 || size > mSamples.capacity()) {
+			throw new IOException("moving average state of " + size + " samples, capacity " + mSamples.capacity());
+		}
+		mSamples.clear();
+		for (int i = 0; i < size; i++) {
+			long timestamp = in.readLong();
+			mSamples.push(timestamp, in.readDouble());
+		}
+		mSum = in.readDouble();
+		mCompensation = in.readDouble();
+	}
+
+	public void reset() {
+		mSamples.clear();
+		mSum = 0;
+		mCompensation = 0;
+	}
+}
@@ -0,0 +1,47 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Layout of the columnar accelerometer trace file written by
+ * {@link TraceFileWriter} and read by {@link MappedTraceReader}. All values
+ * are little-endian.
+ *
+ * <pre>
+ * header:  int magic, short version, short reserved, float sampleRate,
+ *          int chunkSize, long sampleCount, int chunkCount, long indexOffset,
+ *          int metadataLength, byte[metadataLength] UTF-8 device metadata,
+ *          padding to 8 bytes
+ * chunk:   long[n] timestamps, float[n] x, float[n] y, float[n] z,
+ *          padding to 8 bytes
+ * index:   per chunk long firstTimestamp, long lastTimestamp, long offset,
+ *          long firstSample, int sampleCount, int reserved
+ * </pre>
+ */
+final class TraceFile {
+
+	static final int MAGIC = 0x52544341; // "ACTR"
+	static final short VERSION = 1;
+	static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final int FIXED_HEADER_SIZE = 4 + 2 + 2 + 4 + 4 + 8 + 4 + 8 + 4;
+	static final int OFFSET_SAMPLE_COUNT = 16;
+	static final int OFFSET_CHUNK_COUNT = 24;
+	static final int OFFSET_INDEX = 28;
+	static final int INDEX_ENTRY_SIZE = 8 + 8 + 8 + 8 + 4 + 4;
+
+	static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	private TraceFile() {
+	}
+
+	static int chunkBytes(int samples) {
+		return align(samples * (8 + 3 * 4));
+	}
+
+	static int align(int size) {
+		return (size + 7) & ~7;
+	}
+}
@@ -0,0 +1,170 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * TraceFileWriter class, writes accelerometer samples into the chunked
+ * columnar trace format described in {@link TraceFile}.
+ *
+ */
+public class TraceFileWriter implements Closeable {
+
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final int mChunkSize;
+
+	private final long[] mTimestamps;
+	private final float[] mX, mY, mZ;
+	private int mBuffered;
+
+	private final ByteBuffer mChunkBuffer;
+	private ByteBuffer mIndex;
+	private int mChunkCount;
+	private long mSampleCount;
+	private long mLastTimestamp = Long.MIN_VALUE;
+
+	public TraceFileWriter(File file, float sampleRate, String deviceMetadata) throws IOException {
+		this(file, sampleRate, deviceMetadata, TraceFile.DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param sampleRate
+	 *            nominal sample rate in Hz
+	 * @param deviceMetadata
+	 *            free form device description, may be null
+	 * @param chunkSize
+	 *            samples per chunk
+	 */
+	public TraceFileWriter(File file, float sampleRate, String deviceMetadata, int chunkSize) throws IOException {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		mChunkSize = chunkSize;
+		mTimestamps = new long[chunkSize];
+		mX = new float[chunkSize];
+		mY = new float[chunkSize];
+		mZ = new float[chunkSize];
+		mChunkBuffer = ByteBuffer.allocateDirect(TraceFile.chunkBytes(chunkSize)).order(TraceFile.ORDER);
+		mIndex = ByteBuffer.allocate(64 * TraceFile.INDEX_ENTRY_SIZE).order(TraceFile.ORDER);
+
+		mFile = new RandomAccessFile(file, "rw");
+		mFile.setLength(0);
+		mChannel = mFile.getChannel();
+
+		byte[] metadata = deviceMetadata == null ? new byte[0] : deviceMetadata.getBytes(TraceFile.UTF8);
+		ByteBuffer header = ByteBuffer.allocate(TraceFile.align(TraceFile.FIXED_HEADER_SIZE + metadata.length))
+				.order(TraceFile.ORDER);
+		header.putInt(TraceFile.MAGIC);
+		header.putShort(TraceFile.VERSION);
+		header.putShort((short) 0);
+		header.putFloat(sampleRate);
+		header.putInt(chunkSize);
+		header.putLong(0); // sample count, patched on close
+		header.putInt(0); // chunk count, patched on close
+		header.putLong(0); // index offset, patched on close
+		header.putInt(metadata.length);
+		header.put(metadata);
+		header.position(0);
+		writeFully(header);
+	}
+
+	/**
+	 * Appends one sample, timestamps must not decrease.
+	 */
+	public void append(long timestamp, float x, float y, float z) throws IOException {
+		if (timestamp < mLastTimestamp) {
+			throw new IllegalArgumentException("timestamps must not decrease");
+		}
+		mLastTimestamp = timestamp;
+		mTimestamps[mBuffered] = timestamp;
+		mX[mBuffered] = x;
+		mY[mBuffered] = y;
+		mZ[mBuffered] = z;
+		mBuffered++;
+		if (mBuffered == mChunkSize) {
+			flushChunk();
+		}
+	}
+
+	public void append(AccelerometerTrace trace) throws IOException {
+		long[] timestamps = trace.getTimestamps();
+		float[] x = trace.getX();
+		float[] y = trace.getY();
+		float[] z = trace.getZ();
+		for (int i = 0; i < trace.getLength(); i++) {
+			append(timestamps[i], x[i], y[i], z[i]);
+		}
+	}
+
+	private void flushChunk() throws IOException {
+		if (mBuffered == 0) {
+			return;
+		}
+		int n = mBuffered;
+		long offset = mChannel.position();
+
+		ByteBuffer buffer = mChunkBuffer;
+		buffer.clear();
+		buffer.asLongBuffer().put(mTimestamps, 0, n);
+		buffer.position(8 * n);
+		buffer.asFloatBuffer().put(mX, 0, n);
+		buffer.position(8 * n + 4 * n);
+		buffer.asFloatBuffer().put(mY, 0, n);
+		buffer.position(8 * n + 8 * n);
+		buffer.asFloatBuffer().put(mZ, 0, n);
+		buffer.position(0);
+		buffer.limit(TraceFile.chunkBytes(n));
+		writeFully(buffer);
+
+		if (mIndex.remaining() < TraceFile.INDEX_ENTRY_SIZE) {
+			ByteBuffer index = ByteBuffer.allocate(2 * mIndex.capacity()).order(TraceFile.ORDER);
+			mIndex.flip();
+			index.put(mIndex);
+			mIndex = index;
+		}
+		mIndex.putLong(mTimestamps[0]);
+		mIndex.putLong(mTimestamps[n - 1]);
+		mIndex.putLong(offset);
+		mIndex.putLong(mSampleCount);
+		mIndex.putInt(n);
+		mIndex.putInt(0);
+
+		mSampleCount += n;
+		mChunkCount++;
+		mBuffered = 0;
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			mChannel.write(buffer);
+		}
+	}
+
+	/**
+	 * Writes the pending chunk, the chunk index and the header totals.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushChunk();
+			long indexOffset = mChannel.position();
+			mIndex.flip();
+			writeFully(mIndex);
+
+			ByteBuffer totals = ByteBuffer.allocate(8 + 4 + 8).order(TraceFile.ORDER);
+			totals.putLong(mSampleCount);
+			totals.putInt(mChunkCount);
+			totals.putLong(indexOffset);
+			totals.flip();
+			mChannel.position(TraceFile.OFFSET_SAMPLE_COUNT);
+			writeFully(totals);
+		} finally {
+			mFile.close();
+		}
+	}
+}
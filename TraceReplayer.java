@@ -0,0 +1,128 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Arrays;
+
+/**
+ * TraceReplayer class, feeds recorded traces through a step detector as fast
+ * as possible. The detectors measure time from the sample timestamps, so the
+ * replay gives the same steps as the live run of the same samples, provided
+ * the detector is freshly constructed with the same parameters.
+ *
+ */
+public class TraceReplayer {
+
+	private TraceReplayer() {
+	}
+
+	/**
+	 * Pushes all samples of the trace into the detector. The detector's
+	 * listeners are notified as in a live run.
+	 *
+	 * @return the steps reported by the detector, with the sample that
+	 *         completed each of them
+	 */
+	public static ReplayResult replay(AccelerometerTrace trace, HeadlessStepDetector detector) {
+		return replay(trace, 0, trace.getLength(), detector);
+	}
+
+	/**
+	 * Pushes the samples [from, to) of the trace into the detector.
+	 */
+	public static ReplayResult replay(AccelerometerTrace trace, int from, int to, HeadlessStepDetector detector) {
+		long[] timestamps = trace.getTimestamps();
+		float[] x = trace.getX();
+		float[] y = trace.getY();
+		float[] z = trace.getZ();
+		ReplayResult result = new ReplayResult();
+		// a sample can complete several steps, e.g. the spectral detector
+		// catching up over a gap, so the steps are taken as reported
+		StepTap tap = new StepTap(result);
+		detector.setStepTap(tap);
+		try {
+			for (int i = from; i < to; i++) {
+				tap.mSample = i;
+				detector.push(timestamps[i], x[i], y[i], z[i]);
+			}
+		} finally {
+			detector.setStepTap(null);
+		}
+		return result;
+	}
+
+	private static class StepTap implements IPrimitiveStepListener {
+
+		private final ReplayResult mResult;
+		private int mSample;
+
+		StepTap(ReplayResult result) {
+			mResult = result;
+		}
+
+		@Override
+		public void onStep(long timestamp, double duration, double strideLength) {
+			mResult.add(mSample, timestamp, strideLength);
+		}
+	}
+
+	/**
+	 * Steps found during a replay, in sample order.
+	 */
+	public static class ReplayResult {
+
+		private int count;
+		private int[] indices = new int[16];
+		private long[] timestamps = new long[16];
+		private double[] strideLengths = new double[16];
+
+		void add(int index, long timestamp, double strideLength) {
+			if (count == indices.length) {
+				int capacity = 2 * count;
+				indices = Arrays.copyOf(indices, capacity);
+				timestamps = Arrays.copyOf(timestamps, capacity);
+				strideLengths = Arrays.copyOf(strideLengths, capacity);
+			}
+			indices[count] = index;
+			timestamps[count] = timestamp;
+			strideLengths[count] = strideLength;
+			count++;
+		}
+
+		public int getStepCount() {
+			return count;
+		}
+
+		/**
+		 * @return trace index of the sample that produced the step
+		 */
+		public int getSampleIndex(int step) {
+			return indices[step];
+		}
+
+		/**
+		 * @return timestamp the detector gave the step
+		 */
+		public long getTimestamp(int step) {
+			return timestamps[step];
+		}
+
+		public double getStrideLength(int step) {
+			return strideLengths[step];
+		}
+
+		/**
+		 * @return true when both results contain the same steps
+		 */
+		public boolean sameSteps(ReplayResult other) {
+			if (other.count != count) {
+				return false;
+			}
+			for (int i = 0; i < count; i++) {
+				if (indices[i] != other.indices[i] || timestamps[i] != other.timestamps[i]
+						|| Double.compare(strideLengths[i], other.strideLengths[i]) != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
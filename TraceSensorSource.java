@@ -0,0 +1,56 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+/**
+ * TraceSensorSource class, deterministic source replaying a recorded trace in
+ * fixed size batches. {@link #start(ISampleBatchListener)} delivers the whole
+ * trace on the calling thread before it returns, the listener may call
+ * {@link #stop()} to end the replay early. Use
+ * {@link MappedTraceReader#read(long, long)} to replay a trace file.
+ *
+ */
+public class TraceSensorSource implements ISensorSource {
+
+	private final AccelerometerTrace mTrace;
+	private final long[] mTimestamps;
+	private final float[] mXyz;
+	private volatile boolean mRunning;
+
+	/**
+	 * @param batchSize
+	 *            samples per batch, the last batch may be shorter
+	 */
+	public TraceSensorSource(AccelerometerTrace trace, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive");
+		}
+		mTrace = trace;
+		mTimestamps = new long[batchSize];
+		mXyz = new float[3 * batchSize];
+	}
+
+	@Override
+	public void start(ISampleBatchListener listener) {
+		mRunning = true;
+		long[] timestamps = mTrace.getTimestamps();
+		float[] x = mTrace.getX();
+		float[] y = mTrace.getY();
+		float[] z = mTrace.getZ();
+		int length = mTrace.getLength();
+		for (int start = 0; start < length && mRunning; start += mTimestamps.length) {
+			int count = Math.min(mTimestamps.length, length - start);
+			System.arraycopy(timestamps, start, mTimestamps, 0, count);
+			for (int i = 0; i < count; i++) {
+				mXyz[3 * i] = x[start + i];
+				mXyz[3 * i + 1] = y[start + i];
+				mXyz[3 * i + 2] = z[start + i];
+			}
+			listener.onSamples(mTimestamps, mXyz, count);
+		}
+		mRunning = false;
+	}
+
+	@Override
+	public void stop() {
+		mRunning = false;
+	}
+}
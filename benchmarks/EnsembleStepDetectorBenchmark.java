@@ -0,0 +1,89 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Five moving average variants differing in the power thresholds, as one
+ * ensemble with shared stages and as five separate detectors. One operation
+ * is one sample fed to all variants.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnsembleStepDetectorBenchmark {
+
+	private static final double[] LOW_POWER_CUTOFFS = { 100, 200, 500, 1000, 2000 };
+
+	private AccelerometerTrace trace;
+	private EnsembleStepDetector ensemble;
+	private MovingAverageStepDetectorCore[] separate;
+	private int position;
+	private long timeOffset;
+
+	@Setup(Level.Trial)
+	public void createTrace() {
+		trace = SyntheticWalk.create(100, 60);
+	}
+
+	@Setup(Level.Iteration)
+	public void createDetectors() {
+		List<MovingAverageConfiguration> configurations = new ArrayList<MovingAverageConfiguration>();
+		separate = new MovingAverageStepDetectorCore[LOW_POWER_CUTOFFS.length];
+		for (int i = 0; i < LOW_POWER_CUTOFFS.length; i++) {
+			MovingAverageConfiguration configuration = new MovingAverageConfiguration(
+					MovingAverageStepDetectorCore.MA1_WINDOW, MovingAverageStepDetectorCore.MA2_WINDOW,
+					LOW_POWER_CUTOFFS[i], MovingAverageStepDetectorCore.HIGH_POWER_CUTOFF_VALUE);
+			configurations.add(configuration);
+			separate[i] = configuration.createCore();
+		}
+		ensemble = new EnsembleStepDetector(configurations);
+		position = 0;
+		timeOffset = 0;
+	}
+
+	private int next() {
+		int i = position;
+		position = i + 1;
+		if (position == trace.getLength()) {
+			position = 0;
+			timeOffset += trace.getTimestamps()[i] + (long) (1e9 / 100);
+		}
+		return i;
+	}
+
+	@Benchmark
+	public double ensemble() {
+		long offset = timeOffset;
+		int i = next();
+		return ensemble.push(offset + trace.getTimestamps()[i], trace.getX()[i], trace.getY()[i], trace.getZ()[i]);
+	}
+
+	@Benchmark
+	public double separate() {
+		long offset = timeOffset;
+		int i = next();
+		double strideLength = HeadlessStepDetector.NO_STEP;
+		for (int d = 0; d < separate.length; d++) {
+			strideLength = Math.max(strideLength, separate[d].push(offset + trace.getTimestamps()[i],
+					trace.getX()[i], trace.getY()[i], trace.getZ()[i]));
+		}
+		return strideLength;
+	}
+}
@@ -0,0 +1,104 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import thirdparty.fft.Complex;
+import thirdparty.fft.FFT;
+
+/**
+ * Per-sample work of StepDetectionFFT.GraphView.processAccelerometerEvent
+ * without the Android view: the history update on every sample and the FFT
+ * every STEP_SIZE samples. processSample measures the original boxed queue
+ * and Complex FFT, processSamplePrimitive the ring buffer and PrimitiveFFT.
+ * One operation is one sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FFTActivityBenchmark {
+
+	private static final int SIGNAL_SIZE = 64;
+	private static final int STEP_SIZE = 10;
+
+	private AccelerometerTrace trace;
+	private Queue<Complex> signal;
+	private Complex[] signal2;
+	private Complex[] lastFFT;
+	private int stepCounter;
+	private int position;
+
+	private DoubleRingBuffer ring;
+	private PrimitiveFFT fft;
+	private double[] fftRe, fftIm;
+
+	@Setup
+	public void setUp() {
+		trace = SyntheticWalk.create(100, 60);
+		signal = new LinkedList<Complex>();
+		signal2 = new Complex[SIGNAL_SIZE];
+		for (int i = 0; i < SIGNAL_SIZE; i++) {
+			signal.add(new Complex(0.0, 0.0));
+		}
+		ring = new DoubleRingBuffer(SIGNAL_SIZE);
+		ring.fill(0.0);
+		fft = new PrimitiveFFT(SIGNAL_SIZE);
+		fftRe = new double[SIGNAL_SIZE];
+		fftIm = new double[SIGNAL_SIZE];
+	}
+
+	@Benchmark
+	public Complex[] processSample() {
+		float value = trace.getZ()[position];
+		position = (position + 1) % trace.getLength();
+
+		signal.poll();
+		signal.add(new Complex(value, 0.0));
+		if (stepCounter == STEP_SIZE) {
+			Object[] array = signal.toArray();
+			int i = 0;
+			for (Object element : array) {
+				signal2[i] = (Complex) element;
+				i++;
+			}
+			lastFFT = FFT.fft(signal2);
+			stepCounter = 0;
+		} else {
+			stepCounter++;
+		}
+		return lastFFT;
+	}
+
+	@Benchmark
+	public double[] processSamplePrimitive() {
+		float value = trace.getZ()[position];
+		position = (position + 1) % trace.getLength();
+
+		ring.push(value);
+		if (stepCounter == STEP_SIZE) {
+			ring.copyTo(fftRe, 0);
+			Arrays.fill(fftIm, 0);
+			fft.forward(fftRe, fftIm);
+			stepCounter = 0;
+		} else {
+			stepCounter++;
+		}
+		return fftRe;
+	}
+}
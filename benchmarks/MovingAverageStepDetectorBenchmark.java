@@ -0,0 +1,96 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-sample cost of the moving average detector, one operation is one
+ * sample. The axis modes show what the orientation invariance costs on the
+ * single sample and the bulk path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovingAverageStepDetectorBenchmark {
+
+	@Param({ "50", "100", "200" })
+	public int sampleRate;
+
+	@Param({ "Z_AXIS", "MAGNITUDE", "VERTICAL" })
+	public AxisMode axisMode;
+
+	private static final int BLOCK = 1024;
+
+	private AccelerometerTrace trace;
+	private long[] blockTimestamps;
+	private float[] blockXyz;
+	private final int[] stepIndices = new int[BLOCK];
+	private final double[] durations = new double[BLOCK];
+	private final double[] strideLengths = new double[BLOCK];
+	private MovingAverageStepDetectorCore detector;
+	private int position;
+	private long timeOffset;
+
+	@Setup(Level.Trial)
+	public void createTrace() {
+		trace = SyntheticWalk.create(sampleRate, 60);
+		blockTimestamps = new long[BLOCK];
+		blockXyz = new float[3 * BLOCK];
+		for (int i = 0; i < BLOCK; i++) {
+			blockXyz[3 * i] = trace.getX()[i];
+			blockXyz[3 * i + 1] = trace.getY()[i];
+			blockXyz[3 * i + 2] = trace.getZ()[i];
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void createDetector() {
+		detector = new MovingAverageStepDetectorCore();
+		detector.setAxisMode(axisMode);
+		position = 0;
+		timeOffset = 0;
+	}
+
+	@Benchmark
+	public double push() {
+		int i = position;
+		double strideLength = detector.push(timeOffset + trace.getTimestamps()[i], trace.getX()[i],
+				trace.getY()[i], trace.getZ()[i]);
+		position = i + 1;
+		if (position == trace.getLength()) {
+			// keep time running forward across trace repetitions
+			position = 0;
+			timeOffset += trace.getTimestamps()[i] + (long) (1e9 / sampleRate);
+		}
+		return strideLength;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCK)
+	public int processInterleaved() {
+		// the block repeats with the timestamps shifted forward
+		long[] timestamps = trace.getTimestamps();
+		for (int i = 0; i < BLOCK; i++) {
+			blockTimestamps[i] = timeOffset + timestamps[i];
+		}
+		timeOffset += timestamps[BLOCK - 1] + (long) (1e9 / sampleRate);
+		return detector.processInterleaved(blockTimestamps, blockXyz, 0, BLOCK, stepIndices, durations,
+				strideLengths);
+	}
+}
@@ -0,0 +1,66 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-sample cost of the moving average detector at high sensor rates, with
+ * and without the resampling front-end. One operation is one input sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResamplingStepDetectorBenchmark {
+
+	@Param({ "200", "400" })
+	public int sampleRate;
+
+	@Param({ "false", "true" })
+	public boolean resample;
+
+	private AccelerometerTrace trace;
+	private HeadlessStepDetector detector;
+	private int position;
+	private long timeOffset;
+
+	@Setup(Level.Trial)
+	public void createTrace() {
+		trace = SyntheticWalk.create(sampleRate, 60);
+	}
+
+	@Setup(Level.Iteration)
+	public void createDetector() {
+		MovingAverageStepDetectorCore core = new MovingAverageStepDetectorCore();
+		detector = resample ? new ResamplingStepDetector(core) : core;
+		position = 0;
+		timeOffset = 0;
+	}
+
+	@Benchmark
+	public double push() {
+		int i = position;
+		double strideLength = detector.push(timeOffset + trace.getTimestamps()[i], trace.getX()[i],
+				trace.getY()[i], trace.getZ()[i]);
+		position = i + 1;
+		if (position == trace.getLength()) {
+			position = 0;
+			timeOffset += trace.getTimestamps()[i] + (long) (1e9 / sampleRate);
+		}
+		return strideLength;
+	}
+}
@@ -0,0 +1,73 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of notifying 1..N listeners about a step. The Android StepDetector
+ * doesn't override the HeadlessStepDetector dispatch measured here, so its
+ * steps cost the same.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepListenerDispatchBenchmark {
+
+	@Param({ "1", "2", "4", "8" })
+	public int listeners;
+
+	private Detector eventDetector;
+	private Detector primitiveDetector;
+	private long timestamp;
+
+	private static class Detector extends HeadlessStepDetector {
+		void step(long timestamp) {
+			notifyOnStep(timestamp, 0.5, 0.8);
+		}
+	}
+
+	@Setup
+	public void setUp(final Blackhole blackhole) {
+		eventDetector = new Detector();
+		primitiveDetector = new Detector();
+		for (int i = 0; i < listeners; i++) {
+			eventDetector.addStepListener(new IStepListener() {
+				@Override
+				public void onStepEvent(StepEvent event) {
+					blackhole.consume(event);
+				}
+			});
+			primitiveDetector.addPrimitiveStepListener(new IPrimitiveStepListener() {
+				@Override
+				public void onStep(long timestamp, double duration, double strideLength) {
+					blackhole.consume(timestamp);
+				}
+			});
+		}
+	}
+
+	@Benchmark
+	public void stepEventListeners() {
+		eventDetector.step(timestamp++);
+	}
+
+	@Benchmark
+	public void primitiveListeners() {
+		primitiveDetector.step(timestamp++);
+	}
+}
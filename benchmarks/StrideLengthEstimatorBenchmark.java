@@ -0,0 +1,56 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one stride length estimate for the available models.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrideLengthEstimatorBenchmark {
+
+	private final StrideLengthEstimator estimator = new StrideLengthEstimator(1.76);
+	private final IStrideModel noiseless = new HeightStrideModel(1.76, 0, 0);
+	private final IStrideModel duration = new DurationStrideModel(0.75, 1.0);
+	private final IStrideModel calibrated = new CalibratedStrideModel(0.3, 0.25);
+	private double strideDuration = 0.5;
+
+	private double nextDuration() {
+		strideDuration = strideDuration >= 1.5 ? 0.5 : strideDuration + 0.001;
+		return strideDuration;
+	}
+
+	@Benchmark
+	public double estimator() {
+		return estimator.getStrideLengthFromDuration(nextDuration());
+	}
+
+	@Benchmark
+	public double heightModelWithoutNoise() {
+		return noiseless.getStrideLength(nextDuration());
+	}
+
+	@Benchmark
+	public double durationModel() {
+		return duration.getStrideLength(nextDuration());
+	}
+
+	@Benchmark
+	public double calibratedModel() {
+		return calibrated.getStrideLength(nextDuration());
+	}
+}
@@ -0,0 +1,50 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Random;
+
+/**
+ * SyntheticWalk class, deterministic accelerometer traces for the benchmarks
+ * and the tests. The z axis carries gravity, a sinusoidal gait component and
+ * gaussian noise.
+ *
+ */
+public final class SyntheticWalk {
+
+	public static final double STEP_FREQUENCY = 1.8; // in Hz
+	public static final double AMPLITUDE = 8.0;
+
+	private SyntheticWalk() {
+	}
+
+	/**
+	 * @param sampleRate
+	 *            in Hz
+	 * @param seconds
+	 *            trace duration
+	 */
+	public static AccelerometerTrace create(double sampleRate, double seconds) {
+		return create(sampleRate, seconds, AMPLITUDE);
+	}
+
+	/**
+	 * @param amplitude
+	 *            of the gait component in m/s^2
+	 */
+	public static AccelerometerTrace create(double sampleRate, double seconds, double amplitude) {
+		int length = (int) (sampleRate * seconds);
+		long[] timestamps = new long[length];
+		float[] x = new float[length];
+		float[] y = new float[length];
+		float[] z = new float[length];
+		Random random = new Random(42);
+		for (int i = 0; i < length; i++) {
+			double t = i / sampleRate;
+			timestamps[i] = (long) (t * 1e9);
+			x[i] = (float) (0.5 * random.nextGaussian());
+			y[i] = (float) (0.5 * random.nextGaussian());
+			z[i] = (float) (9.81 + amplitude * Math.sin(2 * Math.PI * STEP_FREQUENCY * t)
+					+ 0.5 * random.nextGaussian());
+		}
+		return new AccelerometerTrace(timestamps, x, y, z, length);
+	}
+}
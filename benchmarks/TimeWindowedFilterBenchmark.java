@@ -0,0 +1,79 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Push cost of the time-windowed filters on irregular timestamps, one
+ * operation is one sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeWindowedFilterBenchmark {
+
+	private static final int LENGTH = 1 << 16;
+
+	@Param({ "0.2", "1.0" })
+	public double window;
+
+	@Param({ "100", "400" })
+	public int sampleRate;
+
+	private long[] intervals;
+	private double[] values;
+	private TimeWindowedMovingAverage average;
+	private CumulativeSignalPower cumulativePower;
+	private long timestamp;
+	private int position;
+
+	@Setup
+	public void setup() {
+		// intervals jitter by +-20% around the nominal rate
+		Random random = new Random(42);
+		intervals = new long[LENGTH];
+		values = new double[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			intervals[i] = (long) (1e9 / sampleRate * (0.8 + 0.4 * random.nextDouble()));
+			values[i] = 9.81 + random.nextGaussian();
+		}
+		average = new TimeWindowedMovingAverage(window);
+		cumulativePower = new CumulativeSignalPower();
+	}
+
+	private int next() {
+		int i = position;
+		position = (i + 1) & (LENGTH - 1);
+		timestamp += intervals[i];
+		return i;
+	}
+
+	@Benchmark
+	public double movingAverage() {
+		int i = next();
+		average.push(timestamp, values[i]);
+		return average.getAverage();
+	}
+
+	@Benchmark
+	public double cumulativeSignalPower() {
+		int i = next();
+		cumulativePower.push(timestamp, values[i]);
+		return cumulativePower.getValue();
+	}
+}
@@ -0,0 +1,64 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class DoubleRingBufferTest {
+
+	@Test
+	public void snapshotKeepsTheValuesOfItsMoment() {
+		DoubleRingBuffer buffer = new DoubleRingBuffer(4);
+		for (int i = 0; i < 6; i++) {
+			buffer.push(i * 10L, i);
+		}
+		DoubleRingBuffer.Snapshot snapshot = buffer.snapshot(new DoubleRingBuffer.Snapshot());
+		buffer.removeOldest();
+		buffer.removeOldest();
+		buffer.push(60, 6);
+
+		assertEquals(4, snapshot.size());
+		assertEquals(4, snapshot.get(2), 0);
+		assertEquals(50, snapshot.getTimestamp(3));
+		double[] values = new double[4];
+		try {
+			// 6 went over the slot of 2
+			snapshot.copyTo(values, 0);
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals(3, snapshot.get(1), 0);
+	}
+
+	@Test
+	public void sliceStaysInsideSharedArrays() {
+		long[] timestamps = new long[6];
+		double[] values = new double[6];
+		DoubleRingBuffer first = new DoubleRingBuffer(timestamps, values, 0, 3);
+		DoubleRingBuffer second = new DoubleRingBuffer(timestamps, values, 3, 3);
+		for (int i = 0; i < 5; i++) {
+			first.push(i, i);
+			second.push(i, -i);
+		}
+		assertEquals(2, first.oldest(), 0);
+		assertEquals(-4, second.newest(), 0);
+		assertEquals(4, first.newest(), 0);
+		assertEquals(-2, second.oldest(), 0);
+		assertEquals(3, second.size());
+	}
+
+	@Test
+	public void clearedBufferContinuesAfterTheNewest() {
+		DoubleRingBuffer buffer = new DoubleRingBuffer(3);
+		buffer.push(1);
+		buffer.push(2);
+		DoubleRingBuffer.Snapshot snapshot = buffer.snapshot(new DoubleRingBuffer.Snapshot());
+		buffer.clear();
+		buffer.push(3);
+		assertEquals(1, buffer.size());
+		assertEquals(3, buffer.oldest(), 0);
+		assertEquals(1, snapshot.get(0), 0);
+		assertEquals(2, snapshot.get(1), 0);
+	}
+}
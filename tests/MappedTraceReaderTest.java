@@ -0,0 +1,55 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MappedTraceReaderTest {
+
+	private static class StepRecorder implements IPrimitiveStepListener {
+		final List<Long> mSteps = new ArrayList<Long>();
+
+		@Override
+		public void onStep(long timestamp, double duration, double strideLength) {
+			mSteps.add(timestamp);
+		}
+	}
+
+	@Test
+	public void feedMatchesPushingTheSamples() throws IOException {
+		File file = File.createTempFile("trace", ".trace");
+		try {
+			AccelerometerTrace walk = SyntheticWalk.create(100, 120);
+			TraceFileWriter writer = new TraceFileWriter(file, 100, "test", 1000);
+			writer.append(walk);
+			writer.close();
+
+			MappedTraceReader reader = new MappedTraceReader(file);
+			MovingAverageStepDetectorCore fed = new MovingAverageStepDetectorCore();
+			StepRecorder fedSteps = new StepRecorder();
+			fed.addPrimitiveStepListener(fedSteps);
+			// starts and ends inside a chunk
+			int count = reader.feed(fed, 500, 11500);
+			reader.close();
+
+			MovingAverageStepDetectorCore pushed = new MovingAverageStepDetectorCore();
+			StepRecorder pushedSteps = new StepRecorder();
+			pushed.addPrimitiveStepListener(pushedSteps);
+			for (int i = 500; i < 11500; i++) {
+				pushed.push(walk.getTimestamps()[i], walk.getX()[i], walk.getY()[i], walk.getZ()[i]);
+			}
+
+			assertTrue(count > 100);
+			assertEquals(pushedSteps.mSteps.size(), count);
+			assertEquals(pushedSteps.mSteps, fedSteps.mSteps);
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MultiSessionStepEngineTest {
+
+	@Test
+	public void sessionsDetectTheStepsOfTheCore() {
+		// two hours of walking, long enough for an uncompensated window sum
+		// to drift
+		final int sessions = 3;
+		AccelerometerTrace[] walks = new AccelerometerTrace[sessions];
+		for (int s = 0; s < sessions; s++) {
+			walks[s] = SyntheticWalk.create(100, 7200, 8 + 2 * s);
+		}
+		final List<List<Long>> engineSteps = new ArrayList<List<Long>>();
+		MultiSessionStepEngine engine = new MultiSessionStepEngine(2, 2, 200, new ISessionStepListener() {
+			@Override
+			public void onStep(int session, long timestamp, double strideDuration) {
+				synchronized (engineSteps) {
+					engineSteps.get(session).add(timestamp);
+				}
+			}
+		});
+		int[] ids = new int[sessions];
+		for (int s = 0; s < sessions; s++) {
+			ids[s] = engine.openSession();
+		}
+		// indexed by session id, 2 shards of 2 slots
+		for (int i = 0; i < 4; i++) {
+			engineSteps.add(new ArrayList<Long>());
+		}
+
+		int length = walks[0].getLength();
+		int batch = 1000;
+		int[] batchSessions = new int[sessions * batch];
+		long[] batchTimestamps = new long[sessions * batch];
+		float[] batchZ = new float[sessions * batch];
+		for (int start = 0; start < length; start += batch) {
+			int n = 0;
+			for (int i = start; i < Math.min(length, start + batch); i++) {
+				for (int s = 0; s < sessions; s++) {
+					batchSessions[n] = ids[s];
+					batchTimestamps[n] = walks[s].getTimestamps()[i];
+					batchZ[n] = walks[s].getZ()[i];
+					n++;
+				}
+			}
+			engine.process(batchSessions, batchTimestamps, batchZ, 0, n);
+		}
+		engine.shutdown();
+
+		for (int s = 0; s < sessions; s++) {
+			MovingAverageStepDetectorCore core = new MovingAverageStepDetectorCore();
+			List<Long> coreSteps = new ArrayList<Long>();
+			long[] timestamps = walks[s].getTimestamps();
+			float[] z = walks[s].getZ();
+			for (int i = 0; i < length; i++) {
+				if (core.push(timestamps[i], 0, 0, z[i]) != HeadlessStepDetector.NO_STEP) {
+					coreSteps.add(timestamps[i]);
+				}
+			}
+			assertTrue(coreSteps.size() > 10000);
+			assertEquals(coreSteps, engineSteps.get(ids[s]));
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PlotDecimatorTest {
+
+	@Test
+	public void lateSampleGoesIntoTheCursorColumn() {
+		PlotDecimator decimator = new PlotDecimator(1, 1, 10, 10);
+		decimator.push(0, 0, 1);
+		decimator.push(55, 0, 2);
+		decimator.push(12, 0, 99);
+		assertEquals(5, decimator.getCursor());
+
+		float[] lines = new float[decimator.getLineBufferSize()];
+		int n = decimator.fillLines(0, lines, 0, 1);
+		// column 0 alone, column 5 with its minimum and maximum
+		assertEquals(8, n);
+		assertEquals(0, lines[0], 0);
+		assertEquals(5, lines[4], 0);
+		assertEquals(2, lines[5], 0);
+		assertEquals(99, lines[7], 0);
+	}
+
+	@Test
+	public void lateMarkGoesIntoTheCursorColumn() {
+		PlotDecimator decimator = new PlotDecimator(1, 1, 10, 10);
+		decimator.push(0, 0, 1);
+		decimator.push(55, 0, 2);
+		decimator.mark(12, 0, 7);
+
+		float[] points = new float[20];
+		assertEquals(2, decimator.fillMarkers(0, points, 0, 1));
+		assertEquals(5, points[0], 0);
+		assertEquals(7, points[1], 0);
+	}
+}
@@ -0,0 +1,85 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * The resampling front-end must not change the step counts of the moving
+ * average detector, whatever the sensor rate.
+ */
+public class ResamplingStepDetectorTest {
+
+	private static final double[] RATES = { 50, 100, 120, 200, 250, 400, 1000 };
+	private static final double[] AMPLITUDES = { 3, 4, 8 };
+
+	private static int countSteps(HeadlessStepDetector detector, AccelerometerTrace trace) {
+		final int[] steps = { 0 };
+		detector.addPrimitiveStepListener(new IPrimitiveStepListener() {
+			@Override
+			public void onStep(long timestamp, double duration, double strideLength) {
+				steps[0]++;
+			}
+		});
+		for (int i = 0; i < trace.getLength(); i++) {
+			detector.push(trace.getTimestamps()[i], trace.getX()[i], trace.getY()[i], trace.getZ()[i]);
+		}
+		return steps[0];
+	}
+
+	@Test
+	public void stepCountsDontDependOnInputRate() {
+		for (double amplitude : AMPLITUDES) {
+			for (double rate : RATES) {
+				AccelerometerTrace trace = SyntheticWalk.create(rate, 120, amplitude);
+				int plain = countSteps(new MovingAverageStepDetectorCore(), trace);
+				int resampled = countSteps(new ResamplingStepDetector(new MovingAverageStepDetectorCore()), trace);
+				assertEquals("amplitude " + amplitude + " at " + rate + " Hz", plain, resampled);
+			}
+		}
+	}
+
+	@Test
+	public void weakWalkAtHighRateKeepsItsSteps() {
+		AccelerometerTrace trace = SyntheticWalk.create(400, 120, 3);
+		ResamplingStepDetector resampling = new ResamplingStepDetector(new MovingAverageStepDetectorCore());
+		int steps = countSteps(resampling, trace);
+		assertTrue("decimated", resampling.getDecimationFactor() > 1);
+		assertEquals(countSteps(new MovingAverageStepDetectorCore(), trace), steps);
+		assertTrue(steps > 200);
+	}
+
+	@Test
+	public void detachRestoresThePowerScale() {
+		AccelerometerTrace trace = SyntheticWalk.create(400, 60, 8);
+		MovingAverageStepDetectorCore core = new MovingAverageStepDetectorCore();
+		ResamplingStepDetector resampling = new ResamplingStepDetector(core);
+		countSteps(resampling, trace);
+		resampling.detach();
+
+		MovingAverageStepDetectorCore reference = new MovingAverageStepDetectorCore();
+		AccelerometerTrace next = SyntheticWalk.create(400, 5, 8);
+		for (int i = 0; i < next.getLength(); i++) {
+			long timestamp = trace.getTimestamps()[trace.getLength() - 1] + next.getTimestamps()[i] + 2500000;
+			core.push(timestamp, next.getX()[i], next.getY()[i], next.getZ()[i]);
+			reference.push(timestamp, next.getX()[i], next.getY()[i], next.getZ()[i]);
+		}
+		// both windows hold the same samples by now, so the power must agree
+		assertEquals(reference.getValue(3), core.getValue(3), 1e-3f * Math.abs(reference.getValue(3)) + 1e-3f);
+	}
+
+	@Test
+	public void ensemblePassesTheRatioToItsDetectors() {
+		AccelerometerTrace trace = SyntheticWalk.create(400, 120, 3);
+		EnsembleStepDetector ensemble = new EnsembleStepDetector(
+				Collections.singletonList(MovingAverageConfiguration.DEFAULT),
+				Collections.<HeadlessStepDetector> singletonList(new MovingAverageStepDetectorCore()));
+		countSteps(new ResamplingStepDetector(ensemble), trace);
+		int resampled = countSteps(new ResamplingStepDetector(new MovingAverageStepDetectorCore()), trace);
+		assertEquals(resampled, ensemble.getStepCount(1));
+		assertEquals(ensemble.getStepCount(0), ensemble.getStepCount(1));
+	}
+}
@@ -0,0 +1,88 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SpectralStepDetectorCoreTest {
+
+	private static class StepCounter implements IPrimitiveStepListener {
+		int mSteps;
+
+		@Override
+		public void onStep(long timestamp, double duration, double strideLength) {
+			mSteps++;
+		}
+	}
+
+	/**
+	 * The walk with the samples of a 2 s dropout every 20 s removed.
+	 */
+	private static AccelerometerTrace walkWithDropouts() {
+		AccelerometerTrace walk = SyntheticWalk.create(50, 300);
+		int length = walk.getLength();
+		long[] timestamps = new long[length];
+		float[] x = new float[length];
+		float[] y = new float[length];
+		float[] z = new float[length];
+		int n = 0;
+		for (int i = 0; i < length; i++) {
+			if (i % 1000 >= 900) {
+				continue;
+			}
+			timestamps[n] = walk.getTimestamps()[i];
+			x[n] = walk.getX()[i];
+			y[n] = walk.getY()[i];
+			z[n] = walk.getZ()[i];
+			n++;
+		}
+		return new AccelerometerTrace(timestamps, x, y, z, n);
+	}
+
+	@Test
+	public void everyStepOfAPushIsCounted() {
+		AccelerometerTrace trace = walkWithDropouts();
+		int length = trace.getLength();
+
+		SpectralStepDetectorCore replayed = new SpectralStepDetectorCore();
+		StepCounter replayedListener = new StepCounter();
+		replayed.addPrimitiveStepListener(replayedListener);
+		TraceReplayer.ReplayResult result = TraceReplayer.replay(trace, replayed);
+
+		SpectralStepDetectorCore batched = new SpectralStepDetectorCore();
+		StepCounter batchedListener = new StepCounter();
+		batched.addPrimitiveStepListener(batchedListener);
+		float[] xyz = new float[3 * length];
+		for (int i = 0; i < length; i++) {
+			xyz[3 * i] = trace.getX()[i];
+			xyz[3 * i + 1] = trace.getY()[i];
+			xyz[3 * i + 2] = trace.getZ()[i];
+		}
+		int batchSteps = batched.pushBatch(trace.getTimestamps(), xyz, length);
+
+		// the samples after each dropout complete several steps at once
+		assertTrue(replayedListener.mSteps > 400);
+		assertEquals(replayedListener.mSteps, result.getStepCount());
+		assertEquals(batchedListener.mSteps, batchSteps);
+		assertEquals(replayedListener.mSteps, batchSteps);
+	}
+
+	@Test
+	public void gapLongerThanTheWindowRestartsTheSpectrum() {
+		AccelerometerTrace walk = SyntheticWalk.create(50, 60);
+		SpectralStepDetectorCore core = new SpectralStepDetectorCore();
+		long[] timestamps = walk.getTimestamps();
+		for (int i = 0; i < walk.getLength(); i++) {
+			core.push(timestamps[i], 0, 0, walk.getZ()[i]);
+		}
+		assertEquals(SyntheticWalk.STEP_FREQUENCY, core.getCadence(), 0.1);
+		assertTrue(core.getGaitAmplitude() > SpectralStepDetectorCore.MIN_AMPLITUDE);
+
+		// resume 10 s later, still
+		long resume = timestamps[walk.getLength() - 1] + 10000000000L;
+		core.push(resume, 0, 0, 9.81f);
+		core.push(resume + 50000000L, 0, 0, 9.81f);
+		assertTrue(core.getGaitAmplitude() < SpectralStepDetectorCore.MIN_AMPLITUDE);
+	}
+}
@@ -0,0 +1,171 @@
+package cz.muni.fi.sandbox.service.stepdetector;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Equivalence of the in-repo filters with the dsp.filters ones they replaced
+ * (MovingAverageTD, CumulativeSignalPowerTD). The dsp library is not part of
+ * this tree, so the references below reimplement its behaviour directly: an
+ * unbounded queue of the samples in the window with a plain running sum, and
+ * a plain sum of squares.
+ */
+public class TimeWindowedFilterTest {
+
+	/** behaviour of dsp.filters.MovingAverageTD */
+	private static class ReferenceMovingAverage {
+		private final long mWindow;
+		private final ArrayDeque<long[]> mSamples = new ArrayDeque<long[]>();
+		private double mSum;
+
+		ReferenceMovingAverage(double windowSeconds) {
+			mWindow = (long) (windowSeconds * 1e9);
+		}
+
+		void push(long timestamp, double value) {
+			while (!mSamples.isEmpty() && mSamples.peekFirst()[0] <= timestamp - mWindow) {
+				mSum -= Double.longBitsToDouble(mSamples.pollFirst()[1]);
+			}
+			mSamples.addLast(new long[] { timestamp, Double.doubleToRawLongBits(value) });
+			mSum += value;
+		}
+
+		double getAverage() {
+			return mSamples.isEmpty() ? 0 : mSum / mSamples.size();
+		}
+
+		int size() {
+			return mSamples.size();
+		}
+	}
+
+	/**
+	 * Irregular sensor timestamps: jittered intervals around the rate, with
+	 * an occasional pause longer than the windows.
+	 */
+	private static long[] irregularTimestamps(Random random, int length, double rate) {
+		long[] timestamps = new long[length];
+		long timestamp = 0;
+		for (int i = 0; i < length; i++) {
+			double interval = (0.5 + random.nextDouble()) / rate;
+			if (random.nextInt(20000) == 0) {
+				interval += 2 + random.nextDouble();
+			}
+			timestamp += (long) (interval * 1e9);
+			timestamps[i] = timestamp;
+		}
+		return timestamps;
+	}
+
+	@Test
+	public void movingAverageMatchesOverLongIrregularRun() {
+		Random random = new Random(1);
+		int length = 5000000;
+		long[] timestamps = irregularTimestamps(random, length, 200);
+		for (double window : new double[] { 0.2, 1.0 }) {
+			TimeWindowedMovingAverage average = new TimeWindowedMovingAverage(window);
+			ReferenceMovingAverage reference = new ReferenceMovingAverage(window);
+			double phase = 0;
+			for (int i = 0; i < length; i++) {
+				// gravity plus a gait component plus noise, the magnitudes of
+				// a real z axis
+				phase += 0.05;
+				double value = 9.81 + 8 * Math.sin(phase) + random.nextGaussian();
+				average.push(timestamps[i], value);
+				reference.push(timestamps[i], value);
+				assertEquals(reference.size(), average.size());
+				assertEquals("sample " + i, reference.getAverage(), average.getAverage(), 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void cumulativePowerMatchesBetweenResets() {
+		Random random = new Random(3);
+		CumulativeSignalPower power = new CumulativeSignalPower();
+		double reference = 0;
+		for (int i = 0; i < 1000000; i++) {
+			if (random.nextInt(50) == 0) {
+				power.reset();
+				reference = 0;
+			}
+			double value = 20 * random.nextGaussian();
+			power.push(i, value);
+			reference += value * value;
+			assertEquals("sample " + i, reference, power.getValue(), 1e-9 * reference);
+		}
+	}
+
+	@Test
+	public void detectorFindsTheStepsOfTheReferenceFilterChain() {
+		Random random = new Random(4);
+		AccelerometerTrace walk = SyntheticWalk.create(100, 600);
+		int length = walk.getLength();
+		// the walk resampled at jittered times
+		long[] timestamps = irregularTimestamps(random, length, 100);
+		float[] z = walk.getZ();
+
+		MovingAverageStepDetectorCore core = new MovingAverageStepDetectorCore();
+		List<Long> steps = new ArrayList<Long>();
+		for (int i = 0; i < length; i++) {
+			if (core.push(timestamps[i], 0, 0, z[i]) != HeadlessStepDetector.NO_STEP) {
+				steps.add(timestamps[i]);
+			}
+		}
+
+		// the detector loop of the original MovingAverageStepDetector
+		ReferenceMovingAverage shortAverage = new ReferenceMovingAverage(MovingAverageStepDetectorCore.MA1_WINDOW);
+		ReferenceMovingAverage longAverage = new ReferenceMovingAverage(MovingAverageStepDetectorCore.MA2_WINDOW);
+		double power = 0;
+		boolean swapState = true;
+		long lastStep = 0;
+		List<Long> referenceSteps = new ArrayList<Long>();
+		for (int i = 0; i < length; i++) {
+			shortAverage.push(timestamps[i], z[i]);
+			float ma1 = (float) shortAverage.getAverage();
+			longAverage.push(timestamps[i], ma1);
+			float ma2 = (float) longAverage.getAverage();
+			boolean stepDetected = false;
+			if ((ma1 > ma2) != swapState) {
+				swapState = ma1 > ma2;
+				stepDetected = swapState;
+			}
+			power += (ma1 - ma2) * (ma1 - ma2);
+			float value = (float) power;
+			boolean outOfRange = value < MovingAverageStepDetectorCore.LOW_POWER_CUTOFF_VALUE
+					|| value > MovingAverageStepDetectorCore.HIGH_POWER_CUTOFF_VALUE;
+			if (stepDetected) {
+				power = 0;
+				if (!outOfRange) {
+					double duration = (timestamps[i] - lastStep) / 1e9;
+					lastStep = timestamps[i];
+					if (duration <= 2.0 && duration >= 0.1) {
+						referenceSteps.add(timestamps[i]);
+					}
+				}
+			}
+		}
+		assertEquals(referenceSteps, steps);
+	}
+
+	@Test
+	public void inputAboveMaxRateEvictsEarly() {
+		// 2 kHz into a 0.2 s window sized for 1 kHz
+		TimeWindowedMovingAverage average = new TimeWindowedMovingAverage(0.2);
+		ReferenceMovingAverage reference = new ReferenceMovingAverage(0.2);
+		for (int i = 0; i < 2000; i++) {
+			average.push(i * 500000L, i);
+			reference.push(i * 500000L, i);
+		}
+		assertEquals(average.capacity(), average.size());
+		assertEquals(400, reference.size());
+		// the newest capacity samples only
+		assertEquals(1999 - (average.capacity() - 1) / 2.0, average.getAverage(), 1e-9);
+	}
+}